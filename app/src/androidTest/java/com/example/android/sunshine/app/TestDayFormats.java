@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.EpochDays;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Checks the cached day label formats against freshly built ones, and profiles the allocations
+    of labelling the forecast list's rows with and without them.
+ */
+public class TestDayFormats extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayFormats.class.getSimpleName();
+
+    private static final int ROWS = 14;
+    // How many times the list is scrolled through
+    private static final int PASSES = 50;
+
+    private Locale mDefaultLocale;
+    private TimeZone mDefaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultLocale = Locale.getDefault();
+        mDefaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mDefaultLocale);
+        TimeZone.setDefault(mDefaultZone);
+        EpochDays.onDefaultZoneChanged(null);
+        super.tearDown();
+    }
+
+    private static long[] buildRowDates() {
+        TimeZone zone = TimeZone.getDefault();
+        int today = EpochDays.today(zone);
+        long[] dates = new long[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            dates[i] = EpochDays.startOfDay(today + i, zone);
+        }
+        return dates;
+    }
+
+    // The row label as Utility built it before the formats were cached
+    private String getFriendlyDayStringUncached(long dateInMillis, int row) {
+        if (row == 0) {
+            return String.format(mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today),
+                    new SimpleDateFormat("MMMM dd").format(dateInMillis)));
+        } else if (row == 1) {
+            return mContext.getString(R.string.tomorrow);
+        } else if (row < 7) {
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        } else {
+            return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+        }
+    }
+
+    public void testLabelsMatchUncached() {
+        long[] dates = buildRowDates();
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals("Error: Wrong label for row " + i,
+                    getFriendlyDayStringUncached(dates[i], i),
+                    Utility.getFriendlyDayString(mContext, dates[i], true));
+        }
+        assertEquals(new SimpleDateFormat("MMMM dd").format(dates[3]),
+                Utility.getFormattedMonthDay(mContext, dates[3]));
+    }
+
+    public void testRebuiltForNewLocaleAndZone() {
+        long date = buildRowDates()[10];
+        Utility.getFormattedMonthDay(mContext, date);
+
+        Locale.setDefault(Locale.FRANCE);
+        assertEquals("Error: The formats should follow the locale",
+                new SimpleDateFormat("MMMM dd", Locale.FRANCE).format(date),
+                Utility.getFormattedMonthDay(mContext, date));
+
+        // West of every inhabited zone, so the date falls on the day before there
+        TimeZone.setDefault(TimeZone.getTimeZone("Etc/GMT+12"));
+        EpochDays.onDefaultZoneChanged(null);
+        SimpleDateFormat expected = new SimpleDateFormat("EEE MMM dd", Locale.FRANCE);
+        assertEquals("Error: The formats should follow the time zone",
+                expected.format(date), Utility.getFriendlyDayString(mContext, date, true));
+    }
+
+    /*
+        Looking up the formats of the default zone, as every label does, allocates nothing.
+     */
+    @SuppressWarnings("deprecation")
+    public void testLookupAllocations() {
+        DayFormats formats = DayFormats.get(EpochDays.getDefaultZone());
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < 100; i++) {
+            assertSame(formats, DayFormats.get(EpochDays.getDefaultZone()));
+        }
+        Debug.stopAllocCounting();
+        // Counting isn't supported everywhere, but where it is nothing should be allocated
+        assertEquals("Error: Looking up the formats shouldn't allocate",
+                0, Debug.getThreadAllocCount());
+    }
+
+    private static String describeAllocations(int count, int bytes, int labels) {
+        return String.format(Locale.US, "%d objects, %d bytes (%.1f objects per row)",
+                count, bytes, (double) count / labels);
+    }
+
+    /*
+        Labels the rows of the forecast list the way ForecastAdapter does when it is scrolled
+        through PASSES times, and counts what that allocates.
+     */
+    @SuppressWarnings("deprecation")
+    public void testScrollAllocations() {
+        long[] dates = buildRowDates();
+        // Build the formats and load the strings before counting
+        for (int i = 0; i < ROWS; i++) {
+            Utility.getFriendlyDayString(mContext, dates[i], i == 0);
+            getFriendlyDayStringUncached(dates[i], i);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (int i = 0; i < ROWS; i++) {
+                getFriendlyDayStringUncached(dates[i], i);
+            }
+        }
+        Debug.stopAllocCounting();
+        int uncachedCount = Debug.getThreadAllocCount();
+        int uncachedBytes = Debug.getThreadAllocSize();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (int i = 0; i < ROWS; i++) {
+                Utility.getFriendlyDayString(mContext, dates[i], i == 0);
+            }
+        }
+        Debug.stopAllocCounting();
+        int cachedCount = Debug.getThreadAllocCount();
+        int cachedBytes = Debug.getThreadAllocSize();
+
+        int labels = PASSES * ROWS;
+        Log.i(LOG_TAG, "Labelling " + labels + " rows before: "
+                + describeAllocations(uncachedCount, uncachedBytes, labels));
+        Log.i(LOG_TAG, "Labelling " + labels + " rows after: "
+                + describeAllocations(cachedCount, cachedBytes, labels));
+        if (uncachedCount > 0) {
+            // Counting isn't supported everywhere
+            assertTrue("Error: The cached formats should allocate less",
+                    cachedCount < uncachedCount);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Changes settings behind the snapshot's back and checks that it follows.
+ */
+public class TestSunshineSettings extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "settings-test-location";
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mUnits = mPrefs.getString(mUnitsKey, mContext.getString(R.string.pref_units_metric));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit()
+                .putString(mUnitsKey, mUnits)
+                .remove(Utility.getLocationStatusKey(mContext, TEST_LOCATION))
+                .commit();
+        SunshineSettings.refresh(mContext);
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsChanges() {
+        SunshineSettings before = SunshineSettings.get(mContext);
+        assertSame("Error: Reading the settings shouldn't build a new snapshot",
+                before, SunshineSettings.get(mContext));
+
+        final boolean metric = !before.metric;
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(
+                metric ? R.string.pref_units_metric : R.string.pref_units_imperial)).commit();
+        // Committed off the main thread, so the listener hears of it from there
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return SunshineSettings.get(mContext).metric == metric;
+            }
+        }.run();
+
+        assertEquals("Error: A snapshot shouldn't change once published",
+                !metric, before.metric);
+        assertEquals(metric, Utility.isMetric(mContext));
+        assertEquals(before.preferredLocation, SunshineSettings.get(mContext).preferredLocation);
+    }
+
+    public void testLocationStatuses() {
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN,
+                Utility.getLocationStatus(mContext, TEST_LOCATION));
+
+        mPrefs.edit().putInt(Utility.getLocationStatusKey(mContext, TEST_LOCATION),
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID).commit();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                SunshineSettings.refresh(mContext).getLocationStatus(TEST_LOCATION));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext, TEST_LOCATION));
+    }
+}
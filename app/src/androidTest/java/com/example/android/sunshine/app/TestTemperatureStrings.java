@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks the cached temperature strings against freshly formatted ones, and counts the
+    allocations of looking them up.
+ */
+public class TestTemperatureStrings extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestTemperatureStrings.class.getSimpleName();
+
+    private static final int LOOKUPS = 10000;
+
+    private Locale mDefaultLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultLocale = Locale.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mDefaultLocale);
+        super.tearDown();
+    }
+
+    // The string as Utility formatted it before the strings were cached
+    private String formatUncached(double temperature, boolean metric) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        String string = String.format(mContext.getString(R.string.format_temperature),
+                temperature);
+        // The cache leaves out the sign of a temperature that rounds to zero
+        return string.startsWith("-0") && TemperatureStrings.round(temperature) == 0
+                ? string.substring(1) : string;
+    }
+
+    public void testStringsMatchUncached() {
+        // In tenths of a degree, to cross every rounding boundary, and past both ends of the table
+        for (int tenths = -1200; tenths <= 1200; tenths++) {
+            double temperature = tenths / 10.0;
+            assertEquals("Error: Wrong Celsius string for " + temperature,
+                    formatUncached(temperature, true),
+                    TemperatureStrings.format(mContext, temperature, true));
+            assertEquals("Error: Wrong Fahrenheit string for " + temperature,
+                    formatUncached(temperature, false),
+                    TemperatureStrings.format(mContext, temperature, false));
+        }
+        assertEquals(formatUncached(Double.NaN, true),
+                TemperatureStrings.format(mContext, Double.NaN, true));
+    }
+
+    public void testRounding() {
+        assertEquals(3, TemperatureStrings.round(2.5));
+        assertEquals(-3, TemperatureStrings.round(-2.5));
+        assertEquals(2, TemperatureStrings.round(2.4999999999999996));
+        assertEquals(0, TemperatureStrings.round(-0.4));
+    }
+
+    public void testRebuiltForNewLocale() {
+        TemperatureStrings.format(mContext, 21, true);
+
+        Locale arabic = new Locale("ar", "EG");
+        Locale.setDefault(arabic);
+        assertEquals("Error: The strings should follow the locale",
+                String.format(arabic, mContext.getString(R.string.format_temperature), 21.0),
+                TemperatureStrings.format(mContext, 21, true));
+    }
+
+    /*
+        Looks up LOOKUPS temperatures across the table in both units, and counts what that
+        allocates once every string has been formatted.
+     */
+    @SuppressWarnings("deprecation")
+    public void testLookupAllocations() {
+        double[] temperatures = new double[200];
+        for (int i = 0; i < temperatures.length; i++) {
+            temperatures[i] = -40 + i * 0.37;
+        }
+        // Format the strings and load the format before counting
+        for (double temperature : temperatures) {
+            Utility.formatTemperature(mContext, temperature);
+            TemperatureStrings.format(mContext, temperature, false);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < LOOKUPS; i++) {
+            double temperature = temperatures[i % temperatures.length];
+            Utility.formatTemperature(mContext, temperature);
+            TemperatureStrings.format(mContext, temperature, false);
+        }
+        Debug.stopAllocCounting();
+        int count = Debug.getThreadAllocCount();
+        int bytes = Debug.getThreadAllocSize();
+
+        Log.i(LOG_TAG, String.format(Locale.US, "%d lookups: %d objects, %d bytes",
+                2 * LOOKUPS, count, bytes));
+        assertEquals("Error: Looking up a cached string shouldn't allocate", 0, count);
+    }
+}
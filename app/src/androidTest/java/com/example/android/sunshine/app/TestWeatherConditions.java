@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+/*
+    Checks the condition table against the range checks it replaced, for every id around the
+    ones OpenWeatherMap uses.
+ */
+public class TestWeatherConditions extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherConditions.class.getSimpleName();
+
+    private static final int FIRST_TESTED_ID = -1;
+    private static final int LAST_TESTED_ID = 1000;
+
+    // Utility.getIconResourceForWeatherCondition as it was, to check the table against
+    private static int getIconWithRanges(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    public void testIconsMatchRanges() {
+        for (int weatherId = FIRST_TESTED_ID; weatherId <= LAST_TESTED_ID; weatherId++) {
+            assertEquals("Error: Wrong icon for condition " + weatherId,
+                    getIconWithRanges(weatherId), Utility.getIconResourceForWeatherCondition(weatherId));
+        }
+    }
+
+    public void testKinds() {
+        assertEquals(WeatherConditions.STORM, WeatherConditions.getKind(200));
+        assertEquals(WeatherConditions.FOG, WeatherConditions.getKind(761));
+        assertEquals(WeatherConditions.TORNADO, WeatherConditions.getKind(781));
+        assertEquals(WeatherConditions.CLOUDS, WeatherConditions.getKind(804));
+        assertEquals(WeatherConditions.UNKNOWN, WeatherConditions.getKind(199));
+        assertEquals(WeatherConditions.UNKNOWN, WeatherConditions.getKind(771));
+        assertEquals(WeatherConditions.UNKNOWN, WeatherConditions.getKind(962));
+        assertEquals(WeatherConditions.UNKNOWN, WeatherConditions.getKind(963));
+        assertEquals(WeatherConditions.UNKNOWN, WeatherConditions.getKind(Integer.MIN_VALUE));
+
+        // A tornado is drawn as a storm, but has a photo of its own
+        assertEquals(R.drawable.art_storm, Utility.getArtResourceForWeatherCondition(781));
+        assertFalse(Utility.getImageUrlForWeatherCondition(200).equals(
+                Utility.getImageUrlForWeatherCondition(781)));
+        assertNull(Utility.getImageUrlForWeatherCondition(900));
+        assertNull(Utility.getArtUrlForWeatherCondition(mContext, 900));
+        assertTrue(Utility.getArtUrlForWeatherCondition(mContext, 802).contains("clouds"));
+    }
+
+    public void testConditionStrings() {
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                Utility.getStringForWeatherCondition(mContext, 232));
+        assertEquals(mContext.getString(R.string.condition_3xx),
+                Utility.getStringForWeatherCondition(mContext, 300));
+        assertEquals(mContext.getString(R.string.condition_771),
+                Utility.getStringForWeatherCondition(mContext, 771));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+        for (int weatherId : new int[]{199, 233, 505, 799, 963}) {
+            assertEquals(mContext.getString(R.string.condition_unknown, weatherId),
+                    Utility.getStringForWeatherCondition(mContext, weatherId));
+        }
+    }
+}
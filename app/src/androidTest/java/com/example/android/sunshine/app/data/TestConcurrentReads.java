@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Reads one location's forecast through the provider, the way the forecast list and the widgets
+    do, while a large sync-like write for another location is in its transaction.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int WRITE_ROWS = 20000;
+    private static final int READ_ROWS = 14;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The database should be in WAL mode",
+                "wal", cursor.getString(0).toLowerCase(Locale.US));
+        cursor.close();
+        db.close();
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private static ContentValues[] createWeatherValues(long locationRowId, int rows) {
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * millisecondsInADay);
+        }
+        return values;
+    }
+
+    public void testReadLatencyDuringWrite() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // No WAL, so the readers do wait for the writer
+            return;
+        }
+        long readLocationId = insertLocation(TestUtilities.TEST_LOCATION);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(readLocationId, READ_ROWS));
+        long writeLocationId = insertLocation("concurrent-writer");
+        final ContentValues[] writeValues = createWeatherValues(writeLocationId, WRITE_ROWS);
+
+        final long[] writeNanos = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, writeValues);
+                writeNanos[0] = System.nanoTime() - start;
+            }
+        });
+
+        List<Long> latencies = new ArrayList<>();
+        writer.start();
+        while (writer.isAlive()) {
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                    new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertNotNull(cursor);
+            // The write is for another location, so the read always finds the same rows
+            assertEquals(READ_ROWS, cursor.getCount());
+            cursor.close();
+            latencies.add(System.nanoTime() - start);
+        }
+        writer.join();
+
+        assertFalse("Error: No reads while the write was running", latencies.isEmpty());
+        Collections.sort(latencies);
+        long medianNanos = latencies.get(latencies.size() / 2);
+        long maxNanos = latencies.get(latencies.size() - 1);
+        Log.i(LOG_TAG, String.format(Locale.US, "%d reads during a %d row write of %d ms: "
+                        + "median %.2f ms, max %.2f ms",
+                latencies.size(), WRITE_ROWS, writeNanos[0] / 1000000,
+                medianNanos / 1e6, maxNanos / 1e6));
+        assertTrue("Error: A read waited for the write to finish",
+                maxNanos < writeNanos[0] / 2);
+    }
+}
@@ -177,6 +177,49 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        Version 7 rebuilt the location table.  The weather table's foreign key has to point at
+        the new location table, not at a copy the rebuild left behind.
+     */
+    public void testUpgradeKeepsWeatherForeignKey() {
+        long locationRowId = insertLocation();
+
+        // Version 6 had the location's city_id, which is what the rebuild drops
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.execSQL("ALTER TABLE " + WeatherContract.LocationEntry.TABLE_NAME +
+                " ADD COLUMN city_id INTEGER");
+        db.setVersion(6);
+        db.close();
+
+        db = new WeatherDbHelper(mContext).getWritableDatabase();
+        Cursor c = db.rawQuery("PRAGMA foreign_key_list(" +
+                WeatherContract.WeatherEntry.TABLE_NAME + ")", null);
+        assertTrue("Error: The weather table lost its foreign key", c.moveToFirst());
+        assertEquals(WeatherContract.LocationEntry.TABLE_NAME,
+                c.getString(c.getColumnIndex("table")));
+        assertEquals(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                c.getString(c.getColumnIndex("from")));
+        assertEquals(WeatherContract.LocationEntry._ID, c.getString(c.getColumnIndex("to")));
+        assertFalse(c.moveToNext());
+        c.close();
+
+        // Nothing is left over from the rebuild, and the location kept its row id
+        c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name LIKE ?",
+                new String[]{WeatherContract.LocationEntry.TABLE_NAME + "_%"});
+        assertEquals(0, c.getCount());
+        c.close();
+        c = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID}, null, null, null, null, null);
+        assertTrue(c.moveToFirst());
+        assertEquals(locationRowId, c.getLong(0));
+        c.close();
+
+        // The key still accepts the location's weather
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        db.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+    Upgrades databases the way the version 2 app left them and checks that the forecasts are
+    still there and that the schema ends up the same as a freshly created one.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbUpgrade.class.getSimpleName();
+
+    private static final int LOCATIONS = 50;
+    private static final int DAYS = 14;
+
+    // The version 2 schema, as the app shipped it.  Not built from the contract, which has
+    // moved on since.
+    private static final String[] VERSION_2_SCHEMA = {
+            "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                    + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "location_id INTEGER NOT NULL, date INTEGER NOT NULL, "
+                    + "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                    + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                    + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+                    + " FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                    + "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /*
+        Creates weather.db at version 2 with LOCATIONS locations of DAYS days each.  Returns the
+        row ids of the locations.
+     */
+    private long[] createVersion2Database() {
+        File path = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        long[] locationRowIds = new long[LOCATIONS];
+        db.beginTransaction();
+        try {
+            for (String sql : VERSION_2_SCHEMA) {
+                db.execSQL(sql);
+            }
+            long millisecondsInADay = 1000*60*60*24;
+            for (int i = 0; i < LOCATIONS; i++) {
+                ContentValues location = new ContentValues();
+                location.put("location_setting", i == 0 ? TestUtilities.TEST_LOCATION : "v2-" + i);
+                location.put("city_name", "North Pole");
+                location.put("coord_lat", 64.7488);
+                location.put("coord_long", -147.353);
+                locationRowIds[i] = db.insertOrThrow("location", null, location);
+                for (int day = 0; day < DAYS; day++) {
+                    ContentValues weather = new ContentValues();
+                    weather.put("location_id", locationRowIds[i]);
+                    weather.put("date", TestUtilities.TEST_DATE + day * millisecondsInADay);
+                    weather.put("short_desc", "Asteroids");
+                    weather.put("weather_id", 321);
+                    weather.put("min", 65 - day);
+                    weather.put("max", 75 + day);
+                    weather.put("humidity", 1.2);
+                    weather.put("pressure", 1.3);
+                    weather.put("wind", 5.5);
+                    weather.put("degrees", 1.1);
+                    db.insertOrThrow("weather", null, weather);
+                }
+            }
+            db.setVersion(2);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return locationRowIds;
+    }
+
+    /*
+        Describes every table's columns and every index's columns, in a form that doesn't
+        depend on how the CREATE statements were written.
+     */
+    private static Set<String> describeSchema(SQLiteDatabase db) {
+        Set<String> schema = new TreeSet<>();
+        List<String> tables = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' "
+                + "AND name NOT IN ('android_metadata', 'sqlite_sequence')", null);
+        while (cursor.moveToNext()) {
+            tables.add(cursor.getString(0));
+        }
+        cursor.close();
+
+        for (String table : tables) {
+            cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (cursor.moveToNext()) {
+                schema.add(table + "." + cursor.getString(cursor.getColumnIndex("name"))
+                        + " " + cursor.getString(cursor.getColumnIndex("type"))
+                        + " notnull=" + cursor.getInt(cursor.getColumnIndex("notnull"))
+                        + " default=" + cursor.getString(cursor.getColumnIndex("dflt_value"))
+                        + " pk=" + cursor.getInt(cursor.getColumnIndex("pk")));
+            }
+            cursor.close();
+
+            List<String> indexes = new ArrayList<>();
+            List<Boolean> unique = new ArrayList<>();
+            cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(cursor.getColumnIndex("name")));
+                unique.add(cursor.getInt(cursor.getColumnIndex("unique")) != 0);
+            }
+            cursor.close();
+            for (int i = 0; i < indexes.size(); i++) {
+                StringBuilder columns = new StringBuilder();
+                cursor = db.rawQuery("PRAGMA index_info(" + indexes.get(i) + ")", null);
+                while (cursor.moveToNext()) {
+                    columns.append(cursor.getString(cursor.getColumnIndex("name"))).append(',');
+                }
+                cursor.close();
+                // The names of the indexes behind UNIQUE constraints are SQLite's business
+                String name = indexes.get(i).startsWith("sqlite_autoindex_") ? "" : indexes.get(i);
+                schema.add(table + " index " + name + " unique=" + unique.get(i)
+                        + " (" + columns + ")");
+            }
+        }
+        return schema;
+    }
+
+    public void testUpgradeMatchesFreshSchema() {
+        createVersion2Database();
+        SQLiteDatabase upgraded = new WeatherDbHelper(mContext).getWritableDatabase();
+        Set<String> upgradedSchema = describeSchema(upgraded);
+        upgraded.close();
+
+        // The helper always opens weather.db, so create the fresh one in its place
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        SQLiteDatabase fresh = new WeatherDbHelper(mContext).getWritableDatabase();
+        Set<String> freshSchema = describeSchema(fresh);
+        fresh.close();
+
+        assertEquals("Error: The upgraded schema differs from a new database's",
+                freshSchema, upgradedSchema);
+    }
+
+    public void testUpgradeKeepsForecasts() {
+        long[] locationRowIds = createVersion2Database();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null,
+                LocationEntry._ID + " ASC");
+        assertEquals("Error: The upgrade lost locations", LOCATIONS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(locationRowIds[0], cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        cursor.close();
+
+        cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Error: The upgrade lost forecasts", LOCATIONS * DAYS, cursor.getCount());
+        cursor.close();
+
+        cursor = db.query(SyncStatsEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // Still one row per location and day, and new rows don't reuse old row ids
+        ContentValues weather = TestUtilities.createWeatherValues(locationRowIds[0]);
+        long rowId = db.insert(WeatherEntry.TABLE_NAME, null, weather);
+        assertTrue(rowId > LOCATIONS * DAYS);
+        cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(locationRowIds[0]),
+                        Long.toString(TestUtilities.TEST_DATE)}, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+
+    /*
+        How long after an upgrade the forecast list has its rows: the upgrade itself plus the
+        list's query.  Dropping the tables instead would leave the list empty until a sync.
+     */
+    public void testTimeToFirstForecast() {
+        createVersion2Database();
+
+        long start = System.nanoTime();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        long upgradeNanos = System.nanoTime() - start;
+        Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC,
+                        WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP},
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        int rows = cursor.getCount();
+        long firstForecastNanos = System.nanoTime() - start;
+        cursor.close();
+        db.close();
+
+        Log.i(LOG_TAG, String.format(Locale.US, "Upgrade of %d locations x %d days: %.2f ms, "
+                        + "first forecast after %.2f ms",
+                LOCATIONS, DAYS, upgradeNanos / 1e6, firstForecastNanos / 1e6));
+        assertEquals("Error: The forecast should be there right after the upgrade", DAYS, rows);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.TimeZone;
+
+/*
+    Checks EpochDays against the Time arithmetic it replaced, hour by hour across DST changes,
+    leap days and a skipped day.  Also checks that the default zone is kept.
+ */
+public class TestEpochDays extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestEpochDays.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+
+    // 1999-12-01 to 2030-01-01, so 2000, the century leap year, is in
+    private static final long FIRST_MILLIS = 944006400000L;
+    private static final long LAST_MILLIS = 1893456000000L;
+
+    // None of them changes its clocks at midnight, where the start of the day is a matter of
+    // interpretation.  Lord Howe moves by half an hour and Apia skipped 2011-12-30.
+    private static final String[] ZONES = {
+            "UTC",
+            "America/Los_Angeles",
+            "Europe/London",
+            "Asia/Kolkata",
+            "Australia/Lord_Howe",
+            "Pacific/Apia"
+    };
+
+    // What WeatherContract.normalizeDate did before
+    private static long normalizeWithTime(Time time, long millis) {
+        time.set(millis);
+        int julianDay = Time.getJulianDay(millis, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    public void testNormalizeMatchesTime() {
+        for (String zoneId : ZONES) {
+            Time time = new Time(zoneId);
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            for (long millis = FIRST_MILLIS; millis < LAST_MILLIS; millis += HOUR_IN_MILLIS) {
+                long expected = normalizeWithTime(time, millis);
+                long actual = EpochDays.normalize(millis, zone);
+                if (expected != actual) {
+                    fail("Error: " + zoneId + " normalized " + millis + " to " + actual
+                            + " instead of " + expected);
+                }
+            }
+        }
+    }
+
+    public void testDaysMatchJulianDays() {
+        for (String zoneId : ZONES) {
+            Time time = new Time(zoneId);
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            for (long millis = FIRST_MILLIS; millis < LAST_MILLIS; millis += HOUR_IN_MILLIS) {
+                time.set(millis);
+                int julianDay = Time.getJulianDay(millis, time.gmtoff);
+                int day = EpochDays.fromMillis(millis, zone);
+                if (julianDay != EpochDays.toJulianDay(day)) {
+                    fail("Error: " + zoneId + " put " + millis + " on day " + day
+                            + " instead of julian day " + julianDay);
+                }
+            }
+        }
+    }
+
+    public void testStartOfDayMatchesTime() {
+        for (String zoneId : ZONES) {
+            Time time = new Time(zoneId);
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            int firstDay = EpochDays.fromMillis(FIRST_MILLIS, zone);
+            int lastDay = EpochDays.fromMillis(LAST_MILLIS, zone);
+            for (int day = firstDay; day <= lastDay; day++) {
+                long start = EpochDays.startOfDay(day, zone);
+                if (day == EpochDays.fromMillis(start, zone)) {
+                    assertEquals("Error: " + zoneId + " started day " + day + " differently",
+                            time.setJulianDay(EpochDays.toJulianDay(day)), start);
+                } else {
+                    // A day the zone skipped.  Time can only round it to a neighbour either.
+                    assertEquals("Pacific/Apia", zoneId);
+                }
+            }
+        }
+    }
+
+    public void testLeapDays() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        // 2000-02-29, 2000-03-01 and 2100-03-01: 2100 is not a leap year
+        assertEquals(11016, EpochDays.fromMillis(951782400000L, utc));
+        assertEquals(11017, EpochDays.fromMillis(951868800000L, utc));
+        assertEquals(47541, EpochDays.fromMillis(4107542400000L, utc));
+        assertEquals(47540, EpochDays.fromMillis(4107542400000L - 1, utc));
+        assertEquals(951782400000L, EpochDays.startOfDay(11016, utc));
+    }
+
+    public void testBeforeEpoch() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        assertEquals(0, EpochDays.fromMillis(0, utc));
+        assertEquals(-1, EpochDays.fromMillis(-1, utc));
+        assertEquals(-1, EpochDays.fromMillis(-EpochDays.DAY_IN_MILLIS, utc));
+        assertEquals(-2, EpochDays.fromMillis(-EpochDays.DAY_IN_MILLIS - 1, utc));
+        assertEquals(-EpochDays.DAY_IN_MILLIS, EpochDays.normalize(-1, utc));
+    }
+
+    /*
+        The default zone is kept, not copied, and replaced when the zone changes.
+     */
+    @SuppressWarnings("deprecation")
+    public void testDefaultZone() {
+        TimeZone zone = EpochDays.getDefaultZone();
+        assertEquals(TimeZone.getDefault().getID(), zone.getID());
+        assertSame("Error: The default zone should be looked up once",
+                zone, EpochDays.getDefaultZone());
+
+        try {
+            EpochDays.onDefaultZoneChanged("Asia/Tokyo");
+            assertEquals("Asia/Tokyo", EpochDays.getDefaultZone().getID());
+
+            // Counting isn't supported everywhere, but where it is nothing should be allocated
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            for (int i = 0; i < 100; i++) {
+                WeatherContract.normalizeDate(FIRST_MILLIS + i * EpochDays.DAY_IN_MILLIS);
+            }
+            Debug.stopAllocCounting();
+            assertEquals("Error: Normalizing a date shouldn't allocate",
+                    0, Debug.getThreadAllocCount());
+        } finally {
+            EpochDays.onDefaultZoneChanged(null);
+        }
+        assertEquals(TimeZone.getDefault().getID(), EpochDays.getDefaultZone().getID());
+    }
+}
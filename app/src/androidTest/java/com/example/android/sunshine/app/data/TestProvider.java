@@ -16,19 +16,31 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -61,6 +73,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                SyncStatsEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -160,6 +177,12 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/sync_stats/
+        type = mContext.getContentResolver().getType(SyncStatsEntry.CONTENT_URI);
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/sync_stats
+        assertEquals("Error: the SyncStatsEntry CONTENT_URI should return SyncStatsEntry.CONTENT_TYPE",
+                SyncStatsEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +535,617 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testBulkInsertLocations() {
+        ContentValues[] locations = new ContentValues[3];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = TestUtilities.createNorthPoleLocationValues();
+            locations[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "bulk-" + i);
+        }
+        // A second row for the same location setting breaks its UNIQUE constraint
+        locations[2].put(LocationEntry.COLUMN_LOCATION_SETTING, "bulk-0");
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true,
+                locationObserver);
+        int insertCount = mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI,
+                locations);
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+
+        assertEquals("Error: The duplicate location should be skipped", 2, insertCount);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                null, null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error validating bulk-0", cursor, locations[0]);
+        assertTrue(cursor.moveToNext());
+        TestUtilities.validateCurrentRecord("Error validating bulk-1", cursor, locations[1]);
+        cursor.close();
+    }
+
+    private double queryMaxTemp(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                        TestUtilities.TEST_DATE),
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        double maxTemp = cursor.getDouble(1);
+        cursor.close();
+        return maxTemp;
+    }
+
+    /*
+        Repeated forecast queries are answered from memory until a write to their location.
+     */
+    public void testForecastCache() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentProviderClient client =
+                mContext.getContentResolver().acquireContentProviderClient(WeatherEntry.CONTENT_URI);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        double maxTemp = queryMaxTemp(TestUtilities.TEST_LOCATION);
+        int hits = provider.getCacheHitCount();
+        int misses = provider.getCacheMissCount();
+
+        // Change the row behind the provider's back: the cached rows are all it reads
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues hotter = new ContentValues();
+        hotter.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp + 10);
+        db.update(WeatherEntry.TABLE_NAME, hotter, null, null);
+        db.close();
+        assertEquals("Error: A repeated query should come from the cache",
+                maxTemp, queryMaxTemp(TestUtilities.TEST_LOCATION));
+        assertEquals(hits + 1, provider.getCacheHitCount());
+        assertEquals(misses, provider.getCacheMissCount());
+
+        // Writing another location's forecast leaves this one cached
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "other");
+        long otherRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(otherRowId));
+        assertEquals(maxTemp, queryMaxTemp(TestUtilities.TEST_LOCATION));
+        assertEquals(hits + 2, provider.getCacheHitCount());
+
+        // An insert that fails leaves the location's cached rows alone
+        ContentValues incomplete = TestUtilities.createWeatherValues(locationRowId);
+        incomplete.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        try {
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, incomplete);
+            fail("Error: A row without a description shouldn't be inserted");
+        } catch (SQLException e) {
+            // Expected
+        }
+        assertEquals(maxTemp, queryMaxTemp(TestUtilities.TEST_LOCATION));
+        assertEquals("Error: A failed insert shouldn't invalidate the cache",
+                hits + 3, provider.getCacheHitCount());
+
+        // Writing through the provider drops the location's cached rows
+        hotter.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp + 20);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, hotter,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationRowId)});
+        assertEquals("Error: An update should invalidate the cache",
+                maxTemp + 20, queryMaxTemp(TestUtilities.TEST_LOCATION));
+        assertEquals(misses + 1, provider.getCacheMissCount());
+        client.release();
+    }
+
+    /*
+        Walks a location's forecast a page at a time, and the weather table the same way.
+     */
+    public void testWeatherPages() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        int pageSize = 4;
+        int[] expectedPageSizes = {4, 4, 2};
+        Uri pageUri = WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION, 0, pageSize);
+        int row = 0;
+        for (int page = 0; page < expectedPageSizes.length; page++) {
+            assertNotNull("Error: Page " + page + " should have a next page", pageUri);
+            Cursor cursor = mContext.getContentResolver().query(pageUri, null, null, null, null);
+            assertNotNull(cursor);
+            assertEquals("Error: Wrong size of page " + page,
+                    expectedPageSizes[page], cursor.getCount());
+            while (cursor.moveToNext()) {
+                TestUtilities.validateCurrentRecord("testWeatherPages. Error validating row " + row,
+                        cursor, weatherValues[row]);
+                row++;
+            }
+            pageUri = WeatherEntry.getNextPageUri(pageUri, cursor);
+            cursor.close();
+        }
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, row);
+        assertNull("Error: The last page shouldn't have a next page", pageUri);
+
+        // A full last page leads to an empty one
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherPage(0, BULK_INSERT_RECORDS_TO_INSERT), null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        pageUri = WeatherEntry.getNextPageUri(
+                WeatherEntry.buildWeatherPage(0, BULK_INSERT_RECORDS_TO_INSERT), cursor);
+        cursor.close();
+        assertNotNull(pageUri);
+        cursor = mContext.getContentResolver().query(pageUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        assertNull(WeatherEntry.getNextPageUri(pageUri, cursor));
+        cursor.close();
+    }
+
+    private ArrayList<ContentProviderOperation> buildSyncBatch() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                // Nothing is that old
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?", new String[]{"0"})
+                .build());
+        return operations;
+    }
+
+    /*
+        A sync's location, forecast and purge go through applyBatch as one transaction.
+     */
+    public void testApplyBatch() throws Exception {
+        String authority = mContext.getString(R.string.content_authority);
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                weatherObserver);
+        ContentProviderResult[] results =
+                mContext.getContentResolver().applyBatch(authority, buildSyncBatch());
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 2, results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationRowId)},
+                null);
+        assertEquals("Error: The weather rows should reference the new location",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+        deleteAllRecordsFromProvider();
+
+        // A row that breaks a NOT NULL constraint fails the whole batch
+        ArrayList<ContentProviderOperation> operations = buildSyncBatch();
+        ContentValues incomplete = TestUtilities.createWeatherValues(0);
+        incomplete.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        incomplete.remove(WeatherEntry.COLUMN_LOC_KEY);
+        operations.add(operations.size() - 1,
+                ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                        .withValues(incomplete)
+                        .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                        .build());
+        try {
+            mContext.getContentResolver().applyBatch(authority, operations);
+            fail("Error: The batch should have failed");
+        } catch (SQLException e) {
+            // expected
+        }
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null, null,
+                null);
+        assertEquals("Error: Nothing of a failed batch should be stored", 0, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A write to one location's forecast only notifies the observers of that location, once per
+        bulk insert or batch however many rows it wrote.
+     */
+    public void testLocationScopedNotifications() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "other");
+        long otherRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+
+        final TestUtilities.TestContentObserver locationObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                locationObserver);
+        final TestUtilities.TestContentObserver otherObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("other"), true, otherObserver);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(otherRowId));
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return locationObserver.getChangeCount() > 0 && otherObserver.getChangeCount() > 0;
+            }
+        }.run();
+
+        // Every day of the forecast in one batch
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(locationRowId)) {
+            ContentValues hotter = new ContentValues();
+            hotter.put(WeatherEntry.COLUMN_MAX_TEMP,
+                    weatherValues.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP) + 10);
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                    .withValues(hotter)
+                    .withSelection(WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                    + WeatherEntry.COLUMN_DATE + " = ?",
+                            new String[]{Long.toString(locationRowId),
+                                    Long.toString(WeatherContract.normalizeDate(weatherValues
+                                            .getAsLong(WeatherEntry.COLUMN_DATE)))})
+                    .build());
+        }
+        mContext.getContentResolver().applyBatch(mContext.getString(R.string.content_authority),
+                operations);
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return locationObserver.getChangeCount() > 1;
+            }
+        }.run();
+        // Give any notification that shouldn't have been sent the time to arrive
+        Thread.sleep(500);
+
+        assertEquals("Error: Each write should notify its location once",
+                2, locationObserver.getChangeCount());
+        assertEquals("Error: Writes to another location should not notify this one",
+                1, otherObserver.getChangeCount());
+
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+        locationObserver.waitForNotificationOrFail();
+        otherObserver.waitForNotificationOrFail();
+    }
+
+    /*
+        Rows per second through bulkInsert, against the row by row SQLiteDatabase.insert it
+        replaced, for a sync's worth of rows and for much bigger loads.
+     */
+    public void testBulkInsertBenchmark() {
+        // Spread the rows over many locations, so their dates stay within a few years
+        ContentValues[] locations = new ContentValues[100];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = TestUtilities.createNorthPoleLocationValues();
+            locations[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "benchmark-" + i);
+        }
+        assertEquals(locations.length,
+                mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, locations));
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        long[] locationRowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            locationRowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        for (int rows : new int[]{14, 1000, 100000}) {
+            ContentValues[] values = createWeatherValues(locationRowIds, rows);
+            long start = System.nanoTime();
+            db.beginTransaction();
+            try {
+                for (ContentValues value : values) {
+                    db.insert(WeatherEntry.TABLE_NAME, null, value);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long insertNanos = System.nanoTime() - start;
+            db.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            values = createWeatherValues(locationRowIds, rows);
+            start = System.nanoTime();
+            int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    values);
+            long bulkNanos = System.nanoTime() - start;
+            assertEquals(rows, insertCount);
+            db.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            Log.i(LOG_TAG, String.format("%d rows: insert() %.0f rows/s, bulkInsert %.0f rows/s",
+                    rows, rows / (insertNanos / 1e9), rows / (bulkNanos / 1e9)));
+        }
+        db.close();
+    }
+
+    /*
+        Forecast reads pick up a location's new coordinates, although the provider remembers
+        its location row.
+     */
+    public void testLocationResolver() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        String[] projection = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                LocationEntry.COLUMN_COORD_LAT
+        };
+
+        Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(2));
+        assertEquals(64.7488, cursor.getDouble(3));
+        cursor.close();
+
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, 65.5);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, moved,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        cursor = mContext.getContentResolver().query(uri, projection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: A location update should be seen by the next forecast read",
+                65.5, cursor.getDouble(3));
+        cursor.close();
+
+        // Remove the location behind the provider's back, and add it again under a new row id
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+        db.close();
+        ContentValues readded = TestUtilities.createNorthPoleLocationValues();
+        readded.put(LocationEntry._ID, locationRowId + 1000);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, readded);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId + 1000));
+        cursor = mContext.getContentResolver().query(uri, projection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: A location inserted again should be resolved to its new row",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        The resolver only remembers as many location rows as it was built for.
+     */
+    public void testLocationResolverEviction() {
+        ContentValues[] locations = new ContentValues[3];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = TestUtilities.createNorthPoleLocationValues();
+            locations[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "evicted-" + i);
+        }
+        mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, locations);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        LocationResolver resolver = new LocationResolver(2);
+
+        for (int i = 0; i < locations.length; i++) {
+            assertNotNull(resolver.resolve(db, "evicted-" + i));
+        }
+        assertNotNull(resolver.resolve(db, "evicted-2"));
+        assertEquals(1, resolver.hitCount());
+        assertNotNull(resolver.resolve(db, "evicted-0"));
+        assertEquals("Error: The least recently used row should have been forgotten",
+                4, resolver.missCount());
+        db.close();
+    }
+
+    /*
+        Per-query latency of a forecast read through the location join, against a read of the
+        weather table by a location id resolved from memory, with thousands of locations.
+     */
+    public void testLocationResolverBenchmark() {
+        int locationCount = 2000;
+        int queries = 500;
+        ContentValues[] locations = new ContentValues[locationCount];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = TestUtilities.createNorthPoleLocationValues();
+            locations[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "resolver-" + i);
+        }
+        assertEquals(locations.length,
+                mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, locations));
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        long[] locationRowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            locationRowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(locationRowIds, locationCount * 14));
+
+        // The projection of the forecast list
+        String[] projection = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                LocationEntry.COLUMN_COORD_LAT,
+                LocationEntry.COLUMN_COORD_LONG
+        };
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+        String startDate = Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        LocationResolver resolver = new LocationResolver();
+
+        long joinNanos = 0;
+        long resolvedNanos = 0;
+        for (int i = 0; i < queries; i++) {
+            String locationSetting = "resolver-" + (i * 7919 % locationCount);
+
+            long start = System.nanoTime();
+            Cursor joined = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                    projection, WeatherProvider.sLocationSettingWithStartDateSelection,
+                    new String[]{locationSetting, startDate}, null, null, sortOrder);
+            joined.getCount();
+            joinNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            LocationResolver.Location location = resolver.resolve(db, locationSetting);
+            Cursor resolved = db.query(WeatherEntry.TABLE_NAME,
+                    LocationResolver.toWeatherProjection(projection, location),
+                    WeatherProvider.sLocationIdWithStartDateSelection,
+                    new String[]{Long.toString(location.id), startDate}, null, null, sortOrder);
+            resolved.getCount();
+            resolvedNanos += System.nanoTime() - start;
+
+            assertEquals(14, joined.getCount());
+            assertEquals(joined.getCount(), resolved.getCount());
+            while (joined.moveToNext() && resolved.moveToNext()) {
+                for (int column = 0; column < projection.length; column++) {
+                    assertEquals("Error: The resolved read differs in " + projection[column],
+                            joined.getString(column), resolved.getString(column));
+                }
+            }
+            joined.close();
+            resolved.close();
+        }
+        db.close();
+
+        Log.i(LOG_TAG, String.format("%d locations: join %.3f ms/query, resolved %.3f ms/query "
+                        + "(%d resolver misses)", locationCount, joinNanos / 1e6 / queries,
+                resolvedNanos / 1e6 / queries, resolver.missCount()));
+    }
+
+    /*
+        The maintenance purges old forecasts and the locations left without one, except the
+        preferred location, and frees the pages they took.
+     */
+    public void testMaintenance() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // TEST_DATE is long gone, so all of these are past the retention window
+        TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] staleLocations = new ContentValues[50];
+        for (int i = 0; i < staleLocations.length; i++) {
+            staleLocations[i] = TestUtilities.createNorthPoleLocationValues();
+            staleLocations[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "stale-" + i);
+        }
+        mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, staleLocations);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        long[] locationRowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            locationRowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        int staleRows = 5000;
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createWeatherValues(locationRowIds, staleRows));
+
+        // A location with today's forecast, and the preferred one, which has none yet
+        ContentValues current = TestUtilities.createNorthPoleLocationValues();
+        current.put(LocationEntry.COLUMN_LOCATION_SETTING, "current");
+        long currentRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, current));
+        ContentValues today = TestUtilities.createWeatherValues(currentRowId);
+        today.put(WeatherEntry.COLUMN_DATE, System.currentTimeMillis());
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, today);
+        ContentValues preferred = TestUtilities.createNorthPoleLocationValues();
+        preferred.put(LocationEntry.COLUMN_LOCATION_SETTING, "preferred");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, preferred);
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.Maintenance.METHOD_MAINTAIN, "preferred", null);
+        assertNotNull(result);
+        Log.i(LOG_TAG, "Maintenance: " + result);
+        assertEquals(staleRows,
+                result.getInt(WeatherContract.Maintenance.RESULT_ROWS_PURGED));
+        assertEquals(staleLocations.length + 1,
+                result.getInt(WeatherContract.Maintenance.RESULT_LOCATIONS_REMOVED));
+        // So the sync can drop their statuses
+        List<String> removedSettings = Arrays.asList(result.getStringArray(
+                WeatherContract.Maintenance.RESULT_REMOVED_LOCATION_SETTINGS));
+        assertEquals(staleLocations.length + 1, removedSettings.size());
+        assertTrue(removedSettings.contains(TestUtilities.TEST_LOCATION));
+        assertTrue(removedSettings.contains("stale-0"));
+        assertFalse(removedSettings.contains("preferred"));
+        assertTrue("Error: The purged rows should have freed pages",
+                result.getLong(WeatherContract.Maintenance.RESULT_PAGES_RECLAIMED) > 0);
+        assertTrue(result.getLong(WeatherContract.Maintenance.RESULT_DATABASE_BYTES) > 0);
+
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING}, null,
+                null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("current", cursor.getString(1));
+        assertTrue(cursor.moveToNext());
+        assertEquals("preferred", cursor.getString(1));
+        cursor.close();
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals("Error: Incremental vacuum should be on after the first maintenance",
+                2, WeatherDbHelper.queryPragma(db, "auto_vacuum"));
+        db.close();
+    }
+
+    private static ContentValues[] createWeatherValues(long[] locationRowIds, int rows) {
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            long day = i / locationRowIds.length;
+            values[i] = TestUtilities.createWeatherValues(locationRowIds[i % locationRowIds.length]);
+            values[i].put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                    TestUtilities.TEST_DATE + day * millisecondsInADay));
+        }
+        return values;
+    }
+
+    /*
+        The sync stats history only keeps the most recent syncs, and hands them out newest first.
+     */
+    public void testSyncStatsHistory() {
+        int syncs = SyncStatsEntry.HISTORY_SIZE + 5;
+        for (int i = 0; i < syncs; i++) {
+            mContext.getContentResolver().insert(SyncStatsEntry.CONTENT_URI,
+                    TestUtilities.createSyncStatsValues(i));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                SyncStatsEntry.CONTENT_URI,
+                new String[]{SyncStatsEntry.COLUMN_STARTED},
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: The sync stats history should be trimmed on insert",
+                SyncStatsEntry.HISTORY_SIZE, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The most recent sync should come first", syncs - 1, cursor.getLong(0));
+        assertTrue(cursor.moveToLast());
+        assertEquals("Error: The oldest syncs should have been dropped",
+                syncs - SyncStatsEntry.HISTORY_SIZE, cursor.getLong(0));
+        cursor.close();
+    }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries the provider builds for each UriMatcher route and
+    fails if one of them goes back to scanning a whole table or sorting in a temp B-tree.
+ */
+public class TestQueryPlan extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlan.class.getSimpleName();
+
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // The projection of the forecast list
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // The projection of the today widget, which is also what Muzei and the wearable read
+    private static final String[] WIDGET_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // The projection of the detail view
+    private static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    /*
+        Returns the detail column of every row of the query plan.
+     */
+    private List<String> explain(String sql) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        int detailIndex = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        Log.d(LOG_TAG, sql + "\n    " + plan);
+        return plan;
+    }
+
+    /*
+        Checks that the query only searches indexes and returns rows in index order.  Returns the
+        plan for further checks.
+     */
+    private List<String> assertIndexedPlan(String route, String sql) {
+        List<String> plan = explain(sql);
+        assertFalse("Error: No query plan for " + route, plan.isEmpty());
+        for (String detail : plan) {
+            // "SCAN TABLE weather" before SQLite 3.36, "SCAN weather" after
+            assertFalse("Error: Full scan for " + route + ": " + detail,
+                    detail.startsWith("SCAN "));
+            assertFalse("Error: Sort for " + route + ": " + detail,
+                    detail.contains("TEMP B-TREE"));
+        }
+        return plan;
+    }
+
+    private static void assertCovered(String route, List<String> plan) {
+        for (String detail : plan) {
+            if (detail.contains(" " + WeatherEntry.TABLE_NAME + " ")
+                    || detail.endsWith(" " + WeatherEntry.TABLE_NAME)) {
+                assertTrue("Error: " + route + " should be answered from a covering index: "
+                        + detail, detail.contains("COVERING INDEX"));
+                return;
+            }
+        }
+        fail("Error: " + route + " does not read the weather table: " + plan);
+    }
+
+    private static String buildJoinQuery(String[] projection, String selection, String sortOrder) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, selection, null, null, sortOrder, null);
+    }
+
+    public void testWeatherWithLocationPlan() {
+        String route = "weather/*";
+        String sql = buildJoinQuery(FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingSelection, DATE_ASC);
+        assertCovered(route, assertIndexedPlan(route, sql));
+
+        // The forecast list, the widgets and the wearable ask for today onwards
+        sql = buildJoinQuery(FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection, DATE_ASC);
+        assertCovered(route, assertIndexedPlan(route, sql));
+
+        sql = buildJoinQuery(WIDGET_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection, DATE_ASC);
+        assertCovered(route, assertIndexedPlan(route, sql));
+    }
+
+    public void testWeatherWithLocationAndDatePlan() {
+        String route = "weather/*/#";
+        // A single day, so the unique index finds it as quickly as the covering one would
+        assertIndexedPlan(route, buildJoinQuery(WIDGET_COLUMNS,
+                WeatherProvider.sLocationSettingAndDaySelection, null));
+        assertIndexedPlan(route, buildJoinQuery(DETAIL_COLUMNS,
+                WeatherProvider.sLocationSettingAndDaySelection, null));
+    }
+
+    private static String buildWeatherQuery(String[] projection, String selection,
+                                            String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME, projection,
+                selection, null, null, sortOrder, null);
+    }
+
+    /*
+        Rewrites a projection of the join the way the provider does once it has resolved the
+        location, with the location's columns as literals.
+     */
+    private static String[] toWeatherProjection(String[] projection) {
+        Map<String, String> literals = new HashMap<>();
+        literals.put(LocationEntry._ID, "1");
+        literals.put(LocationEntry.COLUMN_LOCATION_SETTING, "'99705'");
+        literals.put(LocationEntry.COLUMN_CITY_NAME, "'North Pole'");
+        literals.put(LocationEntry.COLUMN_COORD_LAT, "64.7488");
+        literals.put(LocationEntry.COLUMN_COORD_LONG, "-147.353");
+        String[] weatherProjection = LocationResolver.toWeatherProjection(projection,
+                new LocationResolver.Location(1, literals));
+        assertNotNull(weatherProjection);
+        return weatherProjection;
+    }
+
+    public void testWeatherByLocationIdPlan() {
+        // What the provider reads instead of the join once it knows the location's row id
+        String route = "weather/* by location id";
+        String sql = buildWeatherQuery(toWeatherProjection(FORECAST_COLUMNS),
+                WeatherProvider.sLocationIdWithStartDateSelection, DATE_ASC);
+        assertCovered(route, assertIndexedPlan(route, sql));
+        sql = buildWeatherQuery(toWeatherProjection(WIDGET_COLUMNS),
+                WeatherProvider.sLocationIdSelection, DATE_ASC);
+        assertCovered(route, assertIndexedPlan(route, sql));
+
+        route = "weather/*/# by location id";
+        assertIndexedPlan(route, buildWeatherQuery(toWeatherProjection(DETAIL_COLUMNS),
+                WeatherProvider.sLocationIdAndDaySelection, null));
+    }
+
+    public void testWeatherPlan() {
+        // What the sync adapter compares a new forecast against
+        assertIndexedPlan("weather", SQLiteQueryBuilder.buildQueryString(false,
+                WeatherEntry.TABLE_NAME, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                null, null, null, null));
+    }
+
+    public void testLocationPlan() {
+        // What the sync adapter looks a location up by
+        assertIndexedPlan("location", SQLiteQueryBuilder.buildQueryString(false,
+                LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                null, null, null, null));
+    }
+
+    public void testSyncStatsPlan() {
+        // The history is always read whole, but newest first without a sort
+        List<String> plan = explain(SQLiteQueryBuilder.buildQueryString(false,
+                SyncStatsEntry.TABLE_NAME, null, null,
+                null, null, SyncStatsEntry._ID + " DESC", null));
+        for (String detail : plan) {
+            assertFalse("Error: Sort for sync_stats: " + detail, detail.contains("TEMP B-TREE"));
+        }
+    }
+}
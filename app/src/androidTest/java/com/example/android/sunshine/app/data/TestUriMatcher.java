@@ -34,8 +34,13 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    // content://com.example.android.sunshine.app/weather_page"
+    private static final Uri TEST_WEATHER_PAGE_DIR = WeatherContract.WeatherEntry.buildWeatherPage(TEST_LOCATION_ID, 20);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_PAGE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationPage(LOCATION_QUERY, TEST_DATE, 20);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/sync_stats"
+    private static final Uri TEST_SYNC_STATS_DIR = WeatherContract.SyncStatsEntry.CONTENT_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +56,13 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER PAGE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_PAGE_DIR), WeatherProvider.WEATHER_PAGE);
+        assertEquals("Error: The WEATHER WITH LOCATION PAGE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_PAGE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_PAGE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The SYNC STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATS_DIR), WeatherProvider.SYNC_STATS);
     }
 }
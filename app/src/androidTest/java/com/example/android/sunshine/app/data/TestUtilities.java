@@ -77,6 +77,36 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        One row of sync stats, told apart by when the sync started.
+     */
+    static ContentValues createSyncStatsValues(long started) {
+        ContentValues statsValues = new ContentValues();
+        statsValues.put(WeatherContract.SyncStatsEntry.COLUMN_STARTED, started);
+        String[] counters = {
+                WeatherContract.SyncStatsEntry.COLUMN_TOTAL,
+                WeatherContract.SyncStatsEntry.COLUMN_LOCATIONS,
+                WeatherContract.SyncStatsEntry.COLUMN_FETCH,
+                WeatherContract.SyncStatsEntry.COLUMN_CONNECT,
+                WeatherContract.SyncStatsEntry.COLUMN_FIRST_BYTE,
+                WeatherContract.SyncStatsEntry.COLUMN_DOWNLOAD,
+                WeatherContract.SyncStatsEntry.COLUMN_PARSE,
+                WeatherContract.SyncStatsEntry.COLUMN_LOCATION_LOOKUP,
+                WeatherContract.SyncStatsEntry.COLUMN_DIFF,
+                WeatherContract.SyncStatsEntry.COLUMN_INSERT,
+                WeatherContract.SyncStatsEntry.COLUMN_BYTES_RECEIVED,
+                WeatherContract.SyncStatsEntry.COLUMN_ROWS_INSERTED,
+                WeatherContract.SyncStatsEntry.COLUMN_ROWS_UPDATED,
+                WeatherContract.SyncStatsEntry.COLUMN_ROWS_UNCHANGED,
+                WeatherContract.SyncStatsEntry.COLUMN_ROWS_DELETED,
+                WeatherContract.SyncStatsEntry.COLUMN_ERRORS
+        };
+        for (String counter : counters) {
+            statsValues.put(counter, 1);
+        }
+        return statsValues;
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
@@ -122,6 +152,7 @@ public class TestUtilities extends AndroidTestCase {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        int mChangeCount;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -142,9 +173,14 @@ public class TestUtilities extends AndroidTestCase {
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            mChangeCount++;
             mContentChanged = true;
         }
 
+        public int getChangeCount() {
+            return mChangeCount;
+        }
+
         public void waitForNotificationOrFail() {
             // Note: The PollingCheck class is taken from the Android CTS (Compatibility Test Suite).
             // It's useful to look at the Android CTS source for ideas on how to test your Android
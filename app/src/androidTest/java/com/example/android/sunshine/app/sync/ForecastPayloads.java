@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+/*
+    Recorded OpenWeatherMap forecast/daily payloads used by the sync tests and benchmarks.  The
+    day entries were captured from a 16 day Mountain View response, so the field order, the extra
+    fields we don't read ("clouds", "rain", "icon", ...) and the "cod" as a String all match what
+    the server really sends.
+ */
+final class ForecastPayloads {
+    static final String CITY_NAME = "Mountain View";
+    static final double CITY_LATITUDE = 37.386051;
+    static final double CITY_LONGITUDE = -122.083847;
+
+    static final String[] RECORDED_DAYS = {
+            "{\"dt\":1445457600,\"temp\":{\"day\":20.15,\"min\":9.82,\"max\":20.15,\"night\":10.92,\"eve\":16.95,\"morn\":10.22},\"pressure\":1004.58,\"humidity\":45,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":0.87,\"deg\":205,\"clouds\":70}",
+            "{\"dt\":1445544000,\"temp\":{\"day\":23.39,\"min\":12.8,\"max\":23.39,\"night\":13.9,\"eve\":20.19,\"morn\":13.2},\"pressure\":999.44,\"humidity\":74,\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"}],\"speed\":2.48,\"deg\":88,\"clouds\":13}",
+            "{\"dt\":1445630400,\"temp\":{\"day\":20.85,\"min\":9.29,\"max\":20.85,\"night\":10.39,\"eve\":17.65,\"morn\":9.69},\"pressure\":1011.58,\"humidity\":91,\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"}],\"speed\":1.93,\"deg\":139,\"clouds\":24}",
+            "{\"dt\":1445716800,\"temp\":{\"day\":19.62,\"min\":9.86,\"max\":19.62,\"night\":10.96,\"eve\":16.42,\"morn\":10.26},\"pressure\":1009.64,\"humidity\":94,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":5.17,\"deg\":190,\"clouds\":11}",
+            "{\"dt\":1445803200,\"temp\":{\"day\":18.35,\"min\":10.02,\"max\":18.35,\"night\":11.12,\"eve\":15.15,\"morn\":10.42},\"pressure\":999.98,\"humidity\":55,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":3.1,\"deg\":45,\"clouds\":70,\"rain\":5.07}",
+            "{\"dt\":1445889600,\"temp\":{\"day\":22.88,\"min\":13.45,\"max\":22.88,\"night\":14.55,\"eve\":19.68,\"morn\":13.85},\"pressure\":1012.65,\"humidity\":94,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":4.71,\"deg\":99,\"clouds\":52}",
+            "{\"dt\":1445976000,\"temp\":{\"day\":20.18,\"min\":11.59,\"max\":20.18,\"night\":12.69,\"eve\":16.98,\"morn\":11.99},\"pressure\":998.23,\"humidity\":59,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":1.93,\"deg\":22,\"clouds\":10,\"rain\":0.47}",
+            "{\"dt\":1446062400,\"temp\":{\"day\":23.09,\"min\":13.98,\"max\":23.09,\"night\":15.08,\"eve\":19.89,\"morn\":14.38},\"pressure\":1007.96,\"humidity\":84,\"weather\":[{\"id\":804,\"main\":\"Clouds\",\"description\":\"overcast clouds\",\"icon\":\"04d\"}],\"speed\":2.39,\"deg\":344,\"clouds\":25}",
+            "{\"dt\":1446148800,\"temp\":{\"day\":17.7,\"min\":10.48,\"max\":17.7,\"night\":11.58,\"eve\":14.5,\"morn\":10.88},\"pressure\":1007.65,\"humidity\":57,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.51,\"deg\":223,\"clouds\":95}",
+            "{\"dt\":1446235200,\"temp\":{\"day\":19.27,\"min\":9.92,\"max\":19.27,\"night\":11.02,\"eve\":16.07,\"morn\":10.32},\"pressure\":1013.09,\"humidity\":46,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":5.12,\"deg\":117,\"clouds\":35,\"rain\":4.64}",
+            "{\"dt\":1446321600,\"temp\":{\"day\":19.9,\"min\":13.17,\"max\":19.9,\"night\":14.27,\"eve\":16.7,\"morn\":13.57},\"pressure\":1013.69,\"humidity\":58,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":3.02,\"deg\":21,\"clouds\":45,\"rain\":4.24}",
+            "{\"dt\":1446408000,\"temp\":{\"day\":24.17,\"min\":12.41,\"max\":24.17,\"night\":13.51,\"eve\":20.97,\"morn\":12.81},\"pressure\":995.36,\"humidity\":58,\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"}],\"speed\":2.27,\"deg\":78,\"clouds\":99}",
+            "{\"dt\":1446494400,\"temp\":{\"day\":22.12,\"min\":10.46,\"max\":22.12,\"night\":11.56,\"eve\":18.92,\"morn\":10.86},\"pressure\":1007.41,\"humidity\":92,\"weather\":[{\"id\":804,\"main\":\"Clouds\",\"description\":\"overcast clouds\",\"icon\":\"04d\"}],\"speed\":0.93,\"deg\":316,\"clouds\":24}",
+            "{\"dt\":1446580800,\"temp\":{\"day\":17.25,\"min\":9.75,\"max\":17.25,\"night\":10.85,\"eve\":14.05,\"morn\":10.15},\"pressure\":1006.98,\"humidity\":50,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":2.32,\"deg\":4,\"clouds\":46,\"rain\":0.46}",
+            "{\"dt\":1446667200,\"temp\":{\"day\":21.02,\"min\":10.19,\"max\":21.02,\"night\":11.29,\"eve\":17.82,\"morn\":10.59},\"pressure\":1014.94,\"humidity\":76,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":1.03,\"deg\":106,\"clouds\":54}",
+            "{\"dt\":1446753600,\"temp\":{\"day\":15.05,\"min\":8.68,\"max\":15.05,\"night\":9.78,\"eve\":11.85,\"morn\":9.08},\"pressure\":1009.74,\"humidity\":78,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":4.22,\"deg\":76,\"clouds\":77}"
+    };
+
+    static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    private ForecastPayloads() {
+    }
+
+    /**
+     * Builds a forecast/daily response with the given number of days, cycling through the
+     * recorded day entries when more than {@link #RECORDED_DAYS} are asked for.
+     */
+    static String buildDailyPayload(String cityName, double lat, double lon, int days) {
+        StringBuilder payload = new StringBuilder(days * RECORDED_DAYS[0].length() + 256);
+        payload.append("{\"city\":{\"id\":5375480,\"name\":\"").append(cityName)
+                .append("\",\"coord\":{\"lon\":").append(lon)
+                .append(",\"lat\":").append(lat)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0117,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            payload.append(RECORDED_DAYS[i % RECORDED_DAYS.length]);
+        }
+        return payload.append("]}").toString();
+    }
+
+    static String buildDailyPayload(int days) {
+        return buildDailyPayload(CITY_NAME, CITY_LATITUDE, CITY_LONGITUDE, days);
+    }
+}
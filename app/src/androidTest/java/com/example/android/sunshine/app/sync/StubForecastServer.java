@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A tiny HTTP server on the loopback interface that answers every forecast request with a
+    recorded daily forecast for the city named in the "q" parameter, after an optional delay
+    standing in for the network round trip.
+ */
+class StubForecastServer {
+    private static final String LOG_TAG = StubForecastServer.class.getSimpleName();
+
+    static final int FORECAST_DAYS = SunshineSyncAdapter.FORECAST_DAYS;
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final long mLatencyMillis;
+
+    StubForecastServer(long latencyMillis) throws IOException {
+        mLatencyMillis = latencyMillis;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /*
+        The base URL to hand to an OwmForecastSource.
+     */
+    String getForecastBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/forecast/daily?";
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // closed by shutdown
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String requestLine = reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                // skip the request headers
+            }
+            mRequestCount.incrementAndGet();
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            // "GET /data/2.5/forecast/daily?q=...&cnt=14 HTTP/1.1"
+            String path = requestLine == null ? "/" : requestLine.split(" ")[1];
+            String city = Uri.parse("http://127.0.0.1" + path).getQueryParameter("q");
+            byte[] body = ForecastPayloads.buildDailyPayload(city,
+                    ForecastPayloads.CITY_LATITUDE, ForecastPayloads.CITY_LONGITUDE,
+                    FORECAST_DAYS).getBytes("UTF-8");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: application/json; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+            out.write(body);
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            Log.e(LOG_TAG, "Error serving forecast", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A ForecastSource that never touches the network.  It serves either a recorded payload
+    (e.g. a production response saved to a file) or a generated one of the configured number of
+    days, after a configurable latency, and fails the configured share of requests with a 503 or
+    a dropped connection.  It can also drop the connection halfway through the body of a 200.
+ */
+class StubForecastSource implements ForecastSource {
+
+    private final Random mRandom = new Random(42);
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mFailureCount = new AtomicInteger();
+
+    private volatile byte[] mRecordedPayload;
+    private volatile int mDays = SunshineSyncAdapter.FORECAST_DAYS;
+    private volatile long mLatencyMillis;
+    private volatile float mErrorRate;
+    // Guarded by mRandom
+    private int mFailuresToInject;
+    // Guarded by mRandom
+    private int mBodiesToDrop;
+
+    /*
+        Serves this exact payload for every location instead of generating one.
+     */
+    StubForecastSource setRecordedPayload(byte[] payload) {
+        mRecordedPayload = payload;
+        return this;
+    }
+
+    StubForecastSource setRecordedPayload(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return setRecordedPayload(out.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+        The number of forecast days in each generated payload, which sets its size.
+     */
+    StubForecastSource setDays(int days) {
+        mDays = days;
+        return this;
+    }
+
+    StubForecastSource setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+        return this;
+    }
+
+    /*
+        The share of requests, in [0, 1], that fail.  Half of them answer with a 503, the other
+        half drop the connection with an IOException.
+     */
+    StubForecastSource setErrorRate(float errorRate) {
+        mErrorRate = errorRate;
+        return this;
+    }
+
+    /*
+        Fails the next count requests, whatever the error rate.
+     */
+    StubForecastSource failNextRequests(int count) {
+        synchronized (mRandom) {
+            mFailuresToInject = count;
+        }
+        return this;
+    }
+
+    /*
+        Answers the next count requests with a 200, then drops the connection halfway through
+        the body.
+     */
+    StubForecastSource dropNextBodies(int count) {
+        synchronized (mRandom) {
+            mBodiesToDrop = count;
+        }
+        return this;
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    int getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    @Override
+    public Response open(String locationQuery, int numDays,
+                         ForecastResponseCache.Entry cachedResponse) throws IOException {
+        return new StubResponse(locationQuery);
+    }
+
+    private boolean nextFailure() {
+        synchronized (mRandom) {
+            if (mFailuresToInject > 0) {
+                mFailuresToInject--;
+                return true;
+            }
+            return mRandom.nextFloat() < mErrorRate;
+        }
+    }
+
+    private boolean nextDroppedBody() {
+        synchronized (mRandom) {
+            if (mBodiesToDrop > 0) {
+                mBodiesToDrop--;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private class StubResponse implements Response {
+        private final String mLocationQuery;
+        private int mResponseCode = -1;
+        private byte[] mBody;
+
+        StubResponse(String locationQuery) {
+            mLocationQuery = locationQuery;
+        }
+
+        @Override
+        public void connect() {
+            // nothing to connect to
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            if (mResponseCode != -1) {
+                return mResponseCode;
+            }
+            mRequestCount.incrementAndGet();
+            if (mLatencyMillis > 0) {
+                try {
+                    Thread.sleep(mLatencyMillis);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Cancelled");
+                }
+            }
+            if (nextFailure()) {
+                if (mFailureCount.incrementAndGet() % 2 == 0) {
+                    throw new IOException("Stub connection dropped");
+                }
+                mResponseCode = HttpURLConnection.HTTP_UNAVAILABLE;
+                return mResponseCode;
+            }
+
+            byte[] recorded = mRecordedPayload;
+            mBody = recorded != null ? recorded
+                    : ForecastPayloads.buildDailyPayload(mLocationQuery,
+                    ForecastPayloads.CITY_LATITUDE, ForecastPayloads.CITY_LONGITUDE, mDays)
+                    .getBytes("UTF-8");
+            mResponseCode = HttpURLConnection.HTTP_OK;
+            return mResponseCode;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (getResponseCode() != HttpURLConnection.HTTP_OK) {
+                // Like HttpURLConnection.getInputStream on an error status
+                throw new IOException("Stub server unavailable");
+            }
+            if (nextDroppedBody()) {
+                return new DroppedInputStream(
+                        new ByteArrayInputStream(mBody, 0, mBody.length / 2));
+            }
+            return new ByteArrayInputStream(mBody);
+        }
+
+        @Override
+        public ForecastResponseCache.Entry toCacheEntry(long bodyBytes) {
+            // No validators and no freshness lifetime, so every sync fetches again
+            return new ForecastResponseCache.Entry(null, 0, 0, bodyBytes);
+        }
+
+        @Override
+        public ForecastResponseCache.Entry toNotModifiedEntry(
+                ForecastResponseCache.Entry cachedResponse) {
+            return cachedResponse;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /*
+        Throws where the wrapped stream ends, like a connection that drops mid-response.
+     */
+    private static class DroppedInputStream extends FilterInputStream {
+        DroppedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                throw new IOException("Stub connection dropped");
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read == -1) {
+                throw new IOException("Stub connection dropped");
+            }
+            return read;
+        }
+    }
+}
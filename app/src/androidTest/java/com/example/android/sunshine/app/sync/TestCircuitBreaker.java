@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long OPEN_MILLIS = 200;
+
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+        for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        // A success in between starts the count over
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertFalse(breaker.isOpen());
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertTrue("Error: The breaker should open at the threshold", breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRemainingOpenMillis() > 0);
+    }
+
+    public void testTrialRequestAfterOpenTime() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MILLIS);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertEquals(0, breaker.getRemainingOpenMillis());
+        assertTrue("Error: One trial request should be let through", breaker.allowRequest());
+        assertFalse("Error: Only one trial request at a time", breaker.allowRequest());
+
+        // The trial failed, so the breaker stays open for another round
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+}
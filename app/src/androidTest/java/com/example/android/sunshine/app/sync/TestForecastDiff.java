@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.List;
+
+public class TestForecastDiff extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+    private static final int FORECAST_DAYS = 7;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, ForecastPayloads.CITY_NAME);
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, ForecastPayloads.CITY_LATITUDE);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, ForecastPayloads.CITY_LONGITUDE);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private List<ContentValues> parseDays(int days) throws Exception {
+        List<ContentValues> rows = ForecastParser.parseJson(
+                ForecastPayloads.buildDailyPayload(days),
+                SunshineSyncAdapter.getStartDay()).days;
+        for (ContentValues row : rows) {
+            row.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        }
+        return rows;
+    }
+
+    public void testEmptyDatabaseInsertsEverything() throws Exception {
+        ForecastDiff diff = ForecastDiff.compute(mContext.getContentResolver(), mLocationId,
+                parseDays(FORECAST_DAYS));
+        assertEquals(FORECAST_DAYS, diff.inserted);
+        assertEquals(0, diff.updated);
+        assertEquals(0, diff.unchanged);
+        assertEquals(FORECAST_DAYS, diff.changedRows.size());
+    }
+
+    public void testUnchangedForecastWritesNothing() throws Exception {
+        List<ContentValues> stored = parseDays(FORECAST_DAYS);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                stored.toArray(new ContentValues[stored.size()]));
+
+        ForecastDiff diff = ForecastDiff.compute(mContext.getContentResolver(), mLocationId,
+                parseDays(FORECAST_DAYS));
+        assertFalse("Error: An identical forecast should not be written", diff.hasChanges());
+        assertEquals(FORECAST_DAYS, diff.unchanged);
+    }
+
+    public void testOnlyChangedDaysAreWritten() throws Exception {
+        List<ContentValues> stored = parseDays(FORECAST_DAYS);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                stored.toArray(new ContentValues[stored.size()]));
+
+        // One more day at the end, and a warmer third day
+        List<ContentValues> incoming = parseDays(FORECAST_DAYS + 1);
+        ContentValues changedDay = incoming.get(2);
+        changedDay.put(WeatherEntry.COLUMN_MAX_TEMP,
+                changedDay.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP) + 0.5);
+
+        ForecastDiff diff = ForecastDiff.compute(mContext.getContentResolver(), mLocationId,
+                incoming);
+        assertEquals(1, diff.inserted);
+        assertEquals(1, diff.updated);
+        assertEquals(FORECAST_DAYS - 1, diff.unchanged);
+        assertEquals(2, diff.changedRows.size());
+        assertSame(changedDay, diff.changedRows.get(0));
+        assertSame(incoming.get(FORECAST_DAYS), diff.changedRows.get(1));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming parser produces exactly the rows the DOM parser does, and compares
+    the cost of the two paths on recorded payloads.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    private static final int BENCHMARK_WARMUP = 20;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    private static InputStream toStream(String payload) throws IOException {
+        return new ByteArrayInputStream(payload.getBytes("UTF-8"));
+    }
+
+    // The way the sync adapter read the response before it could be streamed
+    private static String readFully(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        reader.close();
+        return buffer.toString();
+    }
+
+    public void testStreamMatchesDom() throws Throwable {
+        String payload = ForecastPayloads.buildDailyPayload(16);
+        int startDay = SunshineSyncAdapter.getStartDay();
+
+        ForecastParser.Forecast dom = ForecastParser.parseJson(payload, startDay);
+        ForecastParser.Forecast stream = ForecastParser.parseStream(toStream(payload), startDay);
+
+        assertTrue("Error: DOM parse was not OK", dom.isOk());
+        assertTrue("Error: Stream parse was not OK", stream.isOk());
+        assertEquals(ForecastPayloads.CITY_NAME, stream.cityName);
+        assertEquals(dom.cityName, stream.cityName);
+        assertEquals(dom.cityLatitude, stream.cityLatitude);
+        assertEquals(dom.cityLongitude, stream.cityLongitude);
+        assertEquals("Error: Day counts differ", 16, stream.days.size());
+        assertEquals("Error: Day counts differ", dom.days.size(), stream.days.size());
+        for (int i = 0; i < dom.days.size(); i++) {
+            assertEquals("Error: Day " + i + " differs", dom.days.get(i), stream.days.get(i));
+        }
+    }
+
+    public void testErrorCode() throws Throwable {
+        int startDay = SunshineSyncAdapter.getStartDay();
+
+        ForecastParser.Forecast dom =
+                ForecastParser.parseJson(ForecastPayloads.NOT_FOUND, startDay);
+        ForecastParser.Forecast stream =
+                ForecastParser.parseStream(toStream(ForecastPayloads.NOT_FOUND), startDay);
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, dom.code);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, stream.code);
+        assertTrue(stream.days.isEmpty());
+    }
+
+    public void testMalformedPayload() throws Throwable {
+        int startDay = SunshineSyncAdapter.getStartDay();
+        String[] malformed = {
+                "[]",
+                "{\"cod\":\"200\",\"city\":{\"name\":\"X\",\"coord\":{\"lat\":1,\"lon\":2}}}",
+                "{\"cod\":\"200\",\"list\":[{\"pressure\":1}]," +
+                        "\"city\":{\"name\":\"X\",\"coord\":{\"lat\":1,\"lon\":2}}}",
+                "{\"cod\":\"200\",\"list\":{}}"
+        };
+        for (String payload : malformed) {
+            try {
+                ForecastParser.parseStream(toStream(payload), startDay);
+                fail("Error: Expected a JSONException for " + payload);
+            } catch (JSONException e) {
+                // expected, the sync adapter reports this as LOCATION_STATUS_SERVER_INVALID
+            }
+        }
+    }
+
+    public void testEmptyStream() throws Throwable {
+        try {
+            ForecastParser.parseStream(toStream(""), SunshineSyncAdapter.getStartDay());
+            fail("Error: Expected an EOFException for an empty stream");
+        } catch (EOFException e) {
+            // expected, the sync adapter reports this as LOCATION_STATUS_SERVER_DOWN
+        }
+    }
+
+    public void testParseBenchmark() throws Throwable {
+        int startDay = SunshineSyncAdapter.getStartDay();
+        for (int days : new int[]{16, 160}) {
+            String payload = ForecastPayloads.buildDailyPayload(days);
+            byte[] bytes = payload.getBytes("UTF-8");
+
+            for (int i = 0; i < BENCHMARK_WARMUP; i++) {
+                ForecastParser.parseJson(readFully(new ByteArrayInputStream(bytes)), startDay);
+                ForecastParser.parseStream(new ByteArrayInputStream(bytes), startDay);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                ForecastParser.parseJson(readFully(new ByteArrayInputStream(bytes)), startDay);
+            }
+            long domNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                ForecastParser.parseStream(new ByteArrayInputStream(bytes), startDay);
+            }
+            long streamNanos = System.nanoTime() - start;
+
+            Log.i(LOG_TAG, String.format("%d days (%d bytes): DOM %.1f us/parse, stream %.1f us/parse",
+                    days, bytes.length,
+                    domNanos / 1000.0 / BENCHMARK_ITERATIONS,
+                    streamNanos / 1000.0 / BENCHMARK_ITERATIONS));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestForecastResponseCache extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+
+    /*
+        An HttpURLConnection that never connects and just answers with the headers it was given.
+     */
+    static class HeaderOnlyConnection extends HttpURLConnection {
+        final Map<String, String> mHeaders = new HashMap<>();
+        long mLastModified;
+
+        HeaderOnlyConnection() throws Exception {
+            super(new URL("http://localhost/"));
+        }
+
+        @Override
+        public String getHeaderField(String key) {
+            return mHeaders.get(key);
+        }
+
+        @Override
+        public long getLastModified() {
+            return mLastModified;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences("forecast_response_cache", Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    public void testMaxAge() {
+        assertEquals(-1, ForecastResponseCache.getMaxAgeSeconds(null));
+        assertEquals(-1, ForecastResponseCache.getMaxAgeSeconds("no-cache"));
+        assertEquals(600, ForecastResponseCache.getMaxAgeSeconds("max-age=600"));
+        assertEquals(60, ForecastResponseCache.getMaxAgeSeconds("public, Max-Age=60, must-revalidate"));
+        assertEquals(-1, ForecastResponseCache.getMaxAgeSeconds("max-age=soon"));
+    }
+
+    public void testPutAndRevalidate() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mContext);
+        assertNull(cache.get(TEST_LOCATION));
+
+        HeaderOnlyConnection response = new HeaderOnlyConnection();
+        response.mHeaders.put("ETag", "\"abc\"");
+        response.mHeaders.put("Cache-Control", "max-age=600");
+        response.mLastModified = 1419033600000L;
+        cache.put(TEST_LOCATION, ForecastResponseCache.fromResponse(response, 4096), 4096);
+
+        ForecastResponseCache.Entry entry = cache.get(TEST_LOCATION);
+        assertNotNull("Error: Entry was not stored", entry);
+        assertEquals("\"abc\"", entry.etag);
+        assertEquals(1419033600000L, entry.lastModified);
+        assertEquals(4096, entry.bodyBytes);
+        assertTrue("Error: Entry with max-age should be fresh",
+                entry.isFresh(System.currentTimeMillis()));
+
+        HeaderOnlyConnection request = new HeaderOnlyConnection();
+        ForecastResponseCache.addValidators(request, entry);
+        assertEquals("\"abc\"", request.getRequestProperty("If-None-Match"));
+        assertEquals(1419033600000L, request.getIfModifiedSince());
+
+        HeaderOnlyConnection notModified = new HeaderOnlyConnection();
+        notModified.mHeaders.put("Cache-Control", "no-cache");
+        cache.putNotModified(TEST_LOCATION,
+                ForecastResponseCache.fromNotModified(notModified, entry));
+        cache.recordFreshHit(entry);
+        cache.recordMiss();
+
+        entry = cache.get(TEST_LOCATION);
+        assertFalse("Error: no-cache entry should need revalidation",
+                entry.isFresh(System.currentTimeMillis()));
+        assertEquals("Error: ETag was lost on 304", "\"abc\"", entry.etag);
+
+        assertEquals(4, cache.getRequestCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0.5f, cache.getHitRatio());
+        assertEquals(4096, cache.getBytesReceived());
+        assertEquals(2 * 4096, cache.getBytesSaved());
+    }
+
+    public void testNoStore() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mContext);
+        HeaderOnlyConnection response = new HeaderOnlyConnection();
+        response.mHeaders.put("ETag", "\"abc\"");
+        response.mHeaders.put("Cache-Control", "no-store");
+        assertNull(ForecastResponseCache.fromResponse(response, 4096));
+        cache.put(TEST_LOCATION, ForecastResponseCache.fromResponse(response, 4096), 4096);
+        assertNull("Error: no-store response was cached", cache.get(TEST_LOCATION));
+    }
+}
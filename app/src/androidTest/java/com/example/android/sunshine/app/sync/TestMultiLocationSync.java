@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Syncs many locations against a StubForecastServer on the loopback interface and compares the
+    throughput of the worker pool with fetching one location at a time.
+ */
+public class TestMultiLocationSync extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMultiLocationSync.class.getSimpleName();
+
+    // Roughly the round trip to the real server on a good mobile connection
+    private static final long STUB_LATENCY_MILLIS = 100;
+
+    private StubForecastServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mServer = new StubForecastServer(STUB_LATENCY_MILLIS);
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setForecastSource(new OwmForecastSource(mServer.getForecastBaseUrl(),
+                SunshineSyncAdapter.LOCATION_TIMEOUT_MS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(SyncStatsEntry.CONTENT_URI, null, null);
+        mContext.getSharedPreferences("forecast_response_cache", Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    private static List<String> buildLocations(int count) {
+        List<String> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add("stub-city-" + i);
+        }
+        return locations;
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void clearStatuses(List<String> locations) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        for (String location : locations) {
+            editor.remove(Utility.getLocationStatusKey(mContext, location));
+        }
+        editor.commit();
+    }
+
+    public void testSyncStoresEveryLocation() {
+        List<String> locations = buildLocations(10);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.syncLocations(locations, true, syncResult);
+
+        assertEquals("Error: Every location should be fetched once",
+                locations.size(), mServer.getRequestCount());
+        assertEquals(locations.size(), countRows(LocationEntry.CONTENT_URI));
+        assertEquals(locations.size() * StubForecastServer.FORECAST_DAYS,
+                countRows(WeatherEntry.CONTENT_URI));
+        assertEquals(locations.size() * StubForecastServer.FORECAST_DAYS,
+                syncResult.stats.numInserts);
+        assertFalse(syncResult.hasError());
+        for (String location : locations) {
+            assertEquals("Error: Wrong status for " + location,
+                    SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    Utility.getLocationStatus(mContext, location));
+            assertEquals("Error: Wrong forecast for " + location,
+                    StubForecastServer.FORECAST_DAYS,
+                    countRows(WeatherEntry.buildWeatherLocation(location)));
+        }
+
+        // The stub serves the same forecast again, so nothing should be written this time
+        syncResult = new SyncResult();
+        mSyncAdapter.syncLocations(locations, true, syncResult);
+        assertEquals(0, syncResult.stats.numInserts);
+        assertEquals(0, syncResult.stats.numUpdates);
+        assertEquals(locations.size() * StubForecastServer.FORECAST_DAYS,
+                syncResult.stats.numSkippedEntries);
+        clearStatuses(locations);
+    }
+
+    public void testSyncStatsRecorded() {
+        List<String> locations = buildLocations(10);
+        mSyncAdapter.syncLocations(locations, true, new SyncResult());
+        // The stub serves the same forecast again, which is stored as a second sync
+        mSyncAdapter.syncLocations(locations, true, new SyncResult());
+
+        Cursor cursor = mContext.getContentResolver().query(SyncStatsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals("Error: Every sync should be recorded", 2, cursor.getCount());
+
+        // Newest first
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, getLong(cursor, SyncStatsEntry.COLUMN_ROWS_INSERTED));
+        assertEquals(locations.size() * StubForecastServer.FORECAST_DAYS,
+                getLong(cursor, SyncStatsEntry.COLUMN_ROWS_UNCHANGED));
+
+        assertTrue(cursor.moveToNext());
+        assertEquals(locations.size(), getLong(cursor, SyncStatsEntry.COLUMN_LOCATIONS));
+        assertEquals(locations.size() * StubForecastServer.FORECAST_DAYS,
+                getLong(cursor, SyncStatsEntry.COLUMN_ROWS_INSERTED));
+        assertEquals(0, getLong(cursor, SyncStatsEntry.COLUMN_ERRORS));
+        assertTrue("Error: No response bytes recorded",
+                getLong(cursor, SyncStatsEntry.COLUMN_BYTES_RECEIVED) > 0);
+        // The stub server takes this long to answer each request
+        assertTrue("Error: Time to first byte not recorded",
+                getLong(cursor, SyncStatsEntry.COLUMN_FIRST_BYTE)
+                        >= locations.size() * STUB_LATENCY_MILLIS * 1000);
+        assertTrue(getLong(cursor, SyncStatsEntry.COLUMN_FETCH)
+                >= STUB_LATENCY_MILLIS * 1000);
+        assertTrue(getLong(cursor, SyncStatsEntry.COLUMN_PARSE) > 0);
+        assertTrue(getLong(cursor, SyncStatsEntry.COLUMN_INSERT) > 0);
+        assertTrue(getLong(cursor, SyncStatsEntry.COLUMN_TOTAL)
+                >= getLong(cursor, SyncStatsEntry.COLUMN_FETCH));
+        cursor.close();
+        clearStatuses(locations);
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+
+    public void testSyncThroughput() {
+        for (int count : new int[]{1, 10, 100}) {
+            List<String> locations = buildLocations(count);
+            long serialNanos = timeSync(locations, 1);
+            long pooledNanos = timeSync(locations, SunshineSyncAdapter.MAX_SYNC_THREADS);
+            Log.i(LOG_TAG, String.format("%d locations: one at a time %.1f locations/s, "
+                            + "%d workers %.1f locations/s",
+                    count,
+                    count / (serialNanos / 1e9),
+                    SunshineSyncAdapter.MAX_SYNC_THREADS,
+                    count / (pooledNanos / 1e9)));
+            clearStatuses(locations);
+        }
+    }
+
+    public void testFailingSource() {
+        List<String> locations = buildLocations(10);
+        StubForecastSource source = new StubForecastSource().setErrorRate(1f);
+        mSyncAdapter.setForecastSource(source);
+        // One worker and no backoff, so the breaker trips after an exact number of requests
+        mSyncAdapter.setMaxSyncThreads(1);
+        mSyncAdapter.setRetryPolicy(new RetryPolicy(SunshineSyncAdapter.MAX_FETCH_ATTEMPTS, 0, 0));
+
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.syncLocations(locations, true, syncResult);
+
+        assertEquals("Error: The circuit breaker should stop the requests",
+                SunshineSyncAdapter.CIRCUIT_FAILURE_THRESHOLD, source.getRequestCount());
+        assertEquals(locations.size(), syncResult.stats.numIoExceptions);
+        assertTrue("Error: The framework should be told to hold off",
+                syncResult.delayUntil > System.currentTimeMillis() / 1000);
+        assertEquals(0, countRows(WeatherEntry.CONTENT_URI));
+        for (String location : locations) {
+            assertEquals("Error: Wrong status for " + location,
+                    SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                    Utility.getLocationStatus(mContext, location));
+        }
+
+        // The breaker stays open for the next sync
+        mSyncAdapter.syncLocations(locations, true, new SyncResult());
+        assertEquals(SunshineSyncAdapter.CIRCUIT_FAILURE_THRESHOLD, source.getRequestCount());
+        clearStatuses(locations);
+    }
+
+    public void testRetryRecoversFromFailures() {
+        List<String> locations = buildLocations(1);
+        // A 503 followed by a dropped connection
+        StubForecastSource source = new StubForecastSource()
+                .failNextRequests(SunshineSyncAdapter.MAX_FETCH_ATTEMPTS - 1);
+        mSyncAdapter.setForecastSource(source);
+        mSyncAdapter.setRetryPolicy(new RetryPolicy(SunshineSyncAdapter.MAX_FETCH_ATTEMPTS, 10, 20));
+
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.syncLocations(locations, true, syncResult);
+
+        assertEquals(SunshineSyncAdapter.MAX_FETCH_ATTEMPTS, source.getRequestCount());
+        assertEquals(0, syncResult.stats.numIoExceptions);
+        assertEquals(0, syncResult.delayUntil);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                Utility.getLocationStatus(mContext, locations.get(0)));
+        assertEquals(StubForecastServer.FORECAST_DAYS, countRows(WeatherEntry.CONTENT_URI));
+        clearStatuses(locations);
+    }
+
+    public void testRetryAfterDroppedBody() {
+        List<String> locations = buildLocations(1);
+        StubForecastSource source = new StubForecastSource()
+                .dropNextBodies(SunshineSyncAdapter.MAX_FETCH_ATTEMPTS - 1);
+        mSyncAdapter.setForecastSource(source);
+        mSyncAdapter.setRetryPolicy(new RetryPolicy(SunshineSyncAdapter.MAX_FETCH_ATTEMPTS, 10, 20));
+
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.syncLocations(locations, true, syncResult);
+
+        assertEquals("Error: A body cut off after a 200 should be fetched again",
+                SunshineSyncAdapter.MAX_FETCH_ATTEMPTS, source.getRequestCount());
+        assertEquals(0, syncResult.stats.numIoExceptions);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                Utility.getLocationStatus(mContext, locations.get(0)));
+        assertEquals(StubForecastServer.FORECAST_DAYS, countRows(WeatherEntry.CONTENT_URI));
+        clearStatuses(locations);
+    }
+
+    public void testDroppedBodiesOpenCircuit() {
+        List<String> locations = buildLocations(10);
+        StubForecastSource source = new StubForecastSource().dropNextBodies(Integer.MAX_VALUE);
+        mSyncAdapter.setForecastSource(source);
+        // One worker and no backoff, so the breaker trips after an exact number of requests
+        mSyncAdapter.setMaxSyncThreads(1);
+        mSyncAdapter.setRetryPolicy(new RetryPolicy(SunshineSyncAdapter.MAX_FETCH_ATTEMPTS, 0, 0));
+
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.syncLocations(locations, true, syncResult);
+
+        assertEquals("Error: Dropped bodies should count against the circuit breaker",
+                SunshineSyncAdapter.CIRCUIT_FAILURE_THRESHOLD, source.getRequestCount());
+        assertEquals(locations.size(), syncResult.stats.numIoExceptions);
+        assertEquals(0, countRows(WeatherEntry.CONTENT_URI));
+        clearStatuses(locations);
+    }
+
+    /*
+        Parsing and provider writes without any network in the way, for the payload the app asks
+        for and for a long one.
+     */
+    public void testOfflineSyncBenchmark() {
+        List<String> locations = buildLocations(100);
+        for (int days : new int[]{SunshineSyncAdapter.FORECAST_DAYS, 16 * 10}) {
+            mSyncAdapter.setForecastSource(new StubForecastSource().setDays(days));
+            long nanos = timeSync(locations, SunshineSyncAdapter.MAX_SYNC_THREADS, days);
+            Log.i(LOG_TAG, String.format("Offline, %d days: %.1f locations/s, %.0f rows/s",
+                    days, locations.size() / (nanos / 1e9),
+                    locations.size() * days / (nanos / 1e9)));
+        }
+        clearStatuses(locations);
+    }
+
+    private long timeSync(List<String> locations, int threads) {
+        return timeSync(locations, threads, StubForecastServer.FORECAST_DAYS);
+    }
+
+    private long timeSync(List<String> locations, int threads, int days) {
+        deleteAllRecords();
+        mSyncAdapter.setMaxSyncThreads(threads);
+
+        long start = System.nanoTime();
+        mSyncAdapter.syncLocations(locations, true, new SyncResult());
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals("Error: Forecasts missing after syncing " + locations.size()
+                        + " locations with " + threads + " workers",
+                locations.size() * days,
+                countRows(WeatherEntry.CONTENT_URI));
+        return elapsed;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestSyncFanOut extends AndroidTestCase {
+
+    private static final long SLOW_CONSUMER_TIMEOUT_MS = 200;
+
+    static class RecordingListener implements SyncFanOut.Listener {
+        final Map<String, Long> mLatencies = new ConcurrentHashMap<>();
+        final Map<String, Boolean> mTimedOut = new ConcurrentHashMap<>();
+        final CountDownLatch mDone;
+
+        RecordingListener(int consumers) {
+            mDone = new CountDownLatch(consumers);
+        }
+
+        @Override
+        public void onConsumerFinished(String name, long latencyMillis, boolean timedOut,
+                                       Throwable error) {
+            mLatencies.put(name, latencyMillis);
+            mTimedOut.put(name, timedOut);
+            mDone.countDown();
+        }
+    }
+
+    public void testSlowConsumerDoesNotHoldOthers() throws Exception {
+        SyncFanOut fanOut = new SyncFanOut();
+        RecordingListener listener = new RecordingListener(3);
+        fanOut.setListener(listener);
+
+        long start = SystemClock.elapsedRealtime();
+        // A download that would hang for a minute
+        fanOut.submit("slow", SLOW_CONSUMER_TIMEOUT_MS, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(60 * 1000);
+                } catch (InterruptedException e) {
+                    // what the watchdog does to a consumer that takes too long
+                }
+            }
+        });
+        fanOut.submit("fast", 5 * 1000, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        fanOut.submit("failing", 5 * 1000, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("expected");
+            }
+        });
+        assertTrue("Error: submit should not wait for the consumers",
+                SystemClock.elapsedRealtime() - start < SLOW_CONSUMER_TIMEOUT_MS);
+
+        assertTrue("Error: Consumers did not finish",
+                listener.mDone.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.mTimedOut.get("slow"));
+        assertFalse(listener.mTimedOut.get("fast"));
+        assertFalse(listener.mTimedOut.get("failing"));
+        assertTrue(listener.mLatencies.get("slow") >= SLOW_CONSUMER_TIMEOUT_MS);
+        assertTrue(listener.mLatencies.get("fast") < SLOW_CONSUMER_TIMEOUT_MS);
+        assertEquals((long) listener.mLatencies.get("fast"), fanOut.getLastLatencyMillis("fast"));
+        assertEquals(-1, fanOut.getLastLatencyMillis("missing"));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences("sync_scheduler", Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    private static ForecastDiff buildDiff(double maxTemperatureChange, int conditionChanges) {
+        ForecastDiff diff = new ForecastDiff();
+        diff.maxTemperatureChange = maxTemperatureChange;
+        diff.conditionChanges = conditionChanges;
+        return diff;
+    }
+
+    public void testDefaultInterval() {
+        SyncScheduler scheduler = new SyncScheduler(mContext);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, scheduler.getInterval());
+        assertEquals(SyncScheduler.REASON_DEFAULT, scheduler.getReason());
+    }
+
+    public void testVolatileForecastSyncsMoreOften() {
+        SyncScheduler.recordUserActivity(mContext);
+        SyncScheduler scheduler = new SyncScheduler(mContext);
+
+        // Highs jumping by 6 degrees and two days turning to rain
+        assertTrue(scheduler.onForecastSynced(buildDiff(6, 2), false));
+        assertEquals(SyncScheduler.MIN_INTERVAL, scheduler.getInterval());
+        assertEquals(SyncScheduler.REASON_VOLATILE, scheduler.getReason());
+
+        // Calming down takes a few syncs, not one
+        assertTrue(scheduler.onForecastSynced(null, false));
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, scheduler.getInterval());
+        assertEquals(SyncScheduler.REASON_DEFAULT, scheduler.getReason());
+        for (int i = 0; i < 5; i++) {
+            scheduler.onForecastSynced(null, false);
+        }
+        assertEquals(SyncScheduler.STABLE_INTERVAL, scheduler.getInterval());
+        assertEquals(SyncScheduler.REASON_STABLE, scheduler.getReason());
+    }
+
+    public void testIdleBacksOffUpToMaxStaleness() {
+        // Nobody has opened the app and there are no widgets or watches
+        SyncScheduler scheduler = new SyncScheduler(mContext);
+        scheduler.onForecastSynced(buildDiff(0.2, 0), false);
+        assertEquals(SyncScheduler.REASON_STABLE_AND_IDLE, scheduler.getReason());
+        assertTrue(scheduler.getInterval() > SyncScheduler.STABLE_INTERVAL);
+        assertTrue(scheduler.getInterval() <= SyncScheduler.MAX_STALENESS);
+        assertTrue(scheduler.getFlexTime() < scheduler.getInterval());
+
+        // A widget on the home screen is enough to stop backing off
+        scheduler.onForecastSynced(buildDiff(0.2, 0), true);
+        assertEquals(SyncScheduler.STABLE_INTERVAL, scheduler.getInterval());
+        assertEquals(SyncScheduler.REASON_STABLE, scheduler.getReason());
+    }
+}
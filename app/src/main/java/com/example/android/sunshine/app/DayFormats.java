@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The date formats behind {@link Utility}'s day labels.  Building a {@link SimpleDateFormat}
+ * loads the locale's symbols and a calendar, which is too much to do for every row the forecast
+ * list and the widget bind, so each thread keeps a set: the formats aren't thread safe, and the
+ * widget formats its rows on binder threads.
+ * <p>
+ * A set is built for a locale and a time zone, and is built again when the caller's differ.
+ * The zone is compared by identity, which is cheap for the one
+ * {@link com.example.android.sunshine.app.data.EpochDays#getDefaultZone} keeps until it changes.
+ */
+class DayFormats {
+
+    private static final ThreadLocal<DayFormats> sFormats = new ThreadLocal<>();
+
+    private final Locale mLocale;
+    private final TimeZone mZone;
+    // Reused for every date formatted on this thread, so only the label itself is allocated
+    private final Date mReusedDate = new Date();
+    private final StringBuffer mBuffer = new StringBuffer();
+    private final FieldPosition mFieldPosition = new FieldPosition(0);
+
+    // "Mon Jun 03"
+    private final DateFormat mShortDate;
+    // "Wednesday"
+    private final DateFormat mDayName;
+    // "June 24"
+    private final DateFormat mMonthDay;
+    // The locale's own medium date
+    private final DateFormat mMediumDate;
+
+    private DayFormats(Locale locale, TimeZone zone) {
+        mLocale = locale;
+        mZone = zone;
+        mShortDate = build(new SimpleDateFormat("EEE MMM dd", locale), zone);
+        mDayName = build(new SimpleDateFormat("EEEE", locale), zone);
+        mMonthDay = build(new SimpleDateFormat("MMMM dd", locale), zone);
+        mMediumDate = build(DateFormat.getDateInstance(DateFormat.DEFAULT, locale), zone);
+    }
+
+    private static DateFormat build(DateFormat format, TimeZone zone) {
+        format.setTimeZone(zone);
+        return format;
+    }
+
+    /**
+     * @return the calling thread's formats for the default locale and the zone
+     */
+    static DayFormats get(TimeZone zone) {
+        Locale locale = Locale.getDefault();
+        DayFormats formats = sFormats.get();
+        if (formats == null || formats.mZone != zone || !formats.mLocale.equals(locale)) {
+            formats = new DayFormats(locale, zone);
+            sFormats.set(formats);
+        }
+        return formats;
+    }
+
+    String formatShortDate(long dateInMillis) {
+        return format(mShortDate, dateInMillis);
+    }
+
+    String formatDayName(long dateInMillis) {
+        return format(mDayName, dateInMillis);
+    }
+
+    String formatMonthDay(long dateInMillis) {
+        return format(mMonthDay, dateInMillis);
+    }
+
+    String formatDate(long dateInMillis) {
+        return format(mMediumDate, dateInMillis);
+    }
+
+    private String format(DateFormat format, long dateInMillis) {
+        mReusedDate.setTime(dateInMillis);
+        mBuffer.setLength(0);
+        return format.format(mReusedDate, mBuffer, mFieldPosition).toString();
+    }
+}
@@ -432,6 +432,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (key.equals(getString(R.string.pref_location_status_key))) {
+            // This may run before the settings snapshot's own listener
+            SunshineSettings.refresh(getActivity());
             updateEmptyView();
         }
     }
@@ -131,6 +131,8 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // This may run before the settings snapshot's own listener
+        SunshineSettings.refresh(this);
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // first clear locationStatus
@@ -138,17 +140,29 @@ public class SettingsActivity extends PreferenceActivity
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyPreferredLocationChanged();
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyPreferredLocationChanged();
+        } else if ( key.equals(getString(R.string.pref_sync_all_locations_key)) ) {
+            // the other stored locations may be stale, bring them up to date
+            if (Utility.isSyncAllLocations(this)) {
+                SunshineSyncAdapter.syncImmediately(this);
+            }
         }
     }
 
+    // Everything that displays weather shows the preferred location, so only its observers
+    // need to redraw, not those of every stored location
+    private void notifyPreferredLocationChanged() {
+        getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                Utility.getPreferredLocation(this)), null);
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The user's settings as of the last change, read once from the default shared preferences so
+ * the forecast list, the widgets and the sync can use fields instead of looking up a preference
+ * and resolving its key and default for every row.
+ * <p>
+ * A snapshot never changes.  A single listener on the preferences builds a new one whenever a
+ * setting or a location status changes and publishes it in one write, so a reader sees either
+ * all of a change or none of it.  The listeners of the settings screen and the forecast list may
+ * run before that one, so they {@link #refresh} before reading.  So do the writers that aren't on
+ * the main thread, whose changes would otherwise only be seen once the main thread has delivered
+ * them.
+ */
+public final class SunshineSettings {
+
+    private static final Object sLock = new Object();
+    private static volatile SunshineSettings sCurrent;
+    // SharedPreferences only keeps weak references to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String preferredLocation;
+    public final boolean metric;
+    public final boolean syncAllLocations;
+    // The URL format of the art pack
+    public final String artPack;
+    public final boolean localGraphics;
+    // The status of the preferred location
+    @SunshineSyncAdapter.LocationStatus
+    public final int locationStatus;
+    private final Map<String, Integer> mLocationStatuses;
+
+    @SuppressWarnings("ResourceType")
+    private SunshineSettings(Context context, SharedPreferences prefs) {
+        preferredLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = prefs.getString(context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+        syncAllLocations = prefs.getBoolean(
+                context.getString(R.string.pref_sync_all_locations_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_sync_all_locations_default)));
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        localGraphics = artPack.equals(sunshineArtPack);
+        locationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+
+        String statusPrefix = Utility.getLocationStatusKey(context, "");
+        Map<String, Integer> locationStatuses = new HashMap<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getKey().startsWith(statusPrefix) && entry.getValue() instanceof Integer) {
+                locationStatuses.put(entry.getKey().substring(statusPrefix.length()),
+                        (Integer) entry.getValue());
+            }
+        }
+        mLocationStatuses = Collections.unmodifiableMap(locationStatuses);
+    }
+
+    /**
+     * @return the status of a synced location
+     */
+    @SuppressWarnings("ResourceType")
+    public @SunshineSyncAdapter.LocationStatus int getLocationStatus(String locationSetting) {
+        Integer status = mLocationStatuses.get(locationSetting);
+        return status != null ? status : SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    }
+
+    /**
+     * @return the current settings
+     */
+    public static SunshineSettings get(Context context) {
+        SunshineSettings settings = sCurrent;
+        return settings != null ? settings : refresh(context);
+    }
+
+    /**
+     * Reads the settings again, for callers that can't wait for the listener.
+     *
+     * @return the current settings
+     */
+    public static SunshineSettings refresh(Context context) {
+        final Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        synchronized (sLock) {
+            if (sListener == null) {
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        if (key == null || isSetting(appContext, key)) {
+                            refresh(appContext);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+            }
+            // Built under the lock, so an older read can't replace a newer one
+            SunshineSettings settings = new SunshineSettings(appContext, prefs);
+            sCurrent = settings;
+            return settings;
+        }
+    }
+
+    private static boolean isSetting(Context context, String key) {
+        return key.equals(context.getString(R.string.pref_location_key))
+                || key.equals(context.getString(R.string.pref_units_key))
+                || key.equals(context.getString(R.string.pref_sync_all_locations_key))
+                || key.equals(context.getString(R.string.pref_art_pack_key))
+                || key.startsWith(context.getString(R.string.pref_location_status_key));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * The strings {@link Utility#formatTemperature} shows.  Temperatures are shown as whole degrees
+ * over a small range, so each string is formatted once per locale, the first time it is needed,
+ * and looked up by its rounded value after that.  The string of a value doesn't depend on the
+ * unit it was converted to, so both units share the table.  Values outside the table are
+ * formatted every time.
+ */
+class TemperatureStrings {
+    // Covers -73 to 65 degrees Celsius in either unit
+    static final int MIN_CACHED = -100;
+    static final int MAX_CACHED = 150;
+
+    private static volatile TemperatureStrings sStrings;
+
+    private final Locale mLocale;
+    private final String mFormat;
+    // Strings are immutable, so two threads filling in the same one is harmless
+    private final String[] mStrings = new String[MAX_CACHED - MIN_CACHED + 1];
+
+    private TemperatureStrings(Locale locale, String format) {
+        mLocale = locale;
+        mFormat = format;
+    }
+
+    /**
+     * @param temperature in degrees Celsius
+     * @param metric      whether to show it in Celsius rather than Fahrenheit
+     */
+    static String format(Context context, double temperature, boolean metric) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        Locale locale = Locale.getDefault();
+        TemperatureStrings strings = sStrings;
+        if (strings == null || !strings.mLocale.equals(locale)) {
+            strings = new TemperatureStrings(locale,
+                    context.getString(R.string.format_temperature));
+            sStrings = strings;
+        }
+        return strings.get(temperature);
+    }
+
+    private String get(double temperature) {
+        // Also true for NaN
+        if (!(temperature > MIN_CACHED - 0.5 && temperature < MAX_CACHED + 0.5)) {
+            return String.format(mLocale, mFormat, temperature);
+        }
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        int rounded = round(temperature);
+        int index = rounded - MIN_CACHED;
+        String string = mStrings[index];
+        if (string == null) {
+            string = String.format(mLocale, mFormat, (double) rounded);
+            mStrings[index] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Rounds half away from zero, as the format's {@code %1.0f} does.  Unlike the format, a value
+     * that rounds to zero is never shown as -0.
+     */
+    static int round(double temperature) {
+        double magnitude = Math.abs(temperature);
+        double whole = Math.floor(magnitude);
+        if (magnitude - whole >= 0.5) {
+            whole++;
+        }
+        return (int) (temperature < 0 ? -whole : whole);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Days as a count of days since 1970-01-01, the way the weather table's dates are kept: each day
+ * is stored as the instant it starts in the user's time zone.
+ * <p>
+ * This is plain arithmetic on the zone's offsets, so it gives the same days as
+ * {@link android.text.format.Time#getJulianDay} and {@link android.text.format.Time#setJulianDay}
+ * without allocating a {@code Time} per date.  Nothing here allocates, so it is safe on any
+ * thread.  {@link TimeZone#getDefault} copies the zone on every call, so callers take the
+ * default zone from {@link #getDefaultZone} instead, which keeps one until the zone changes.
+ */
+public final class EpochDays {
+    public static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // The julian day of 1970-01-01, as in Time.EPOCH_JULIAN_DAY
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    // The default zone as of the last change, or null until it is next asked for
+    private static volatile TimeZone sDefaultZone;
+
+    private EpochDays() {
+    }
+
+    /**
+     * @return the default time zone.  The same object is returned until the zone changes, so it
+     * must not be modified.
+     */
+    public static TimeZone getDefaultZone() {
+        TimeZone zone = sDefaultZone;
+        if (zone == null) {
+            zone = TimeZone.getDefault();
+            sDefaultZone = zone;
+        }
+        return zone;
+    }
+
+    /**
+     * Replaces the zone {@link #getDefaultZone} returns.  The provider calls this when the user's
+     * time zone changes, and so does anything that calls {@link TimeZone#setDefault}.
+     *
+     * @param zoneId the id of the new zone, or null to look up the default zone again
+     */
+    public static void onDefaultZoneChanged(String zoneId) {
+        sDefaultZone = zoneId != null ? TimeZone.getTimeZone(zoneId) : null;
+    }
+
+    /**
+     * @return the day the instant falls on in the zone
+     */
+    public static int fromMillis(long millis, TimeZone zone) {
+        long localMillis = millis + zone.getOffset(millis);
+        long day = localMillis / DAY_IN_MILLIS;
+        // Round towards the past for instants before 1970
+        if (localMillis < 0 && day * DAY_IN_MILLIS != localMillis) {
+            day--;
+        }
+        return (int) day;
+    }
+
+    /**
+     * @return the instant the day starts in the zone
+     */
+    public static long startOfDay(int day, TimeZone zone) {
+        long localMidnight = day * DAY_IN_MILLIS;
+        // The offset at midnight decides when midnight is, so start from a guess that is at most
+        // a DST shift off and settle on the offset in force at the result
+        int offset = zone.getOffset(localMidnight - zone.getRawOffset());
+        long start = localMidnight - offset;
+        int actualOffset = zone.getOffset(start);
+        if (actualOffset != offset) {
+            start = localMidnight - actualOffset;
+        }
+        return start;
+    }
+
+    /**
+     * @return the instant the day of {@code millis} starts in the zone
+     */
+    public static long normalize(long millis, TimeZone zone) {
+        return startOfDay(fromMillis(millis, zone), zone);
+    }
+
+    /**
+     * @return today in the zone
+     */
+    public static int today(TimeZone zone) {
+        return fromMillis(System.currentTimeMillis(), zone);
+    }
+
+    public static int toJulianDay(int day) {
+        return day + EPOCH_JULIAN_DAY;
+    }
+
+    public static int fromJulianDay(int julianDay) {
+        return julianDay - EPOCH_JULIAN_DAY;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Keeps the rows of recent forecast queries in memory, so the forecast list, the widgets, Muzei,
+ * the notification and the wearable asking for the same forecast right after a sync are answered
+ * without going to SQLite.  Entries are keyed by the matched URI, the location setting, the date
+ * and the projection, and evicted least recently used first once their estimated size passes
+ * {@link #MAX_BYTES}.
+ * <p>
+ * The provider invalidates the entries of every location setting it writes to.  Each invalidation
+ * also starts a new generation, and a query that started in an older one is not cached, so a
+ * read that raced a write can't put back what the write just replaced.
+ */
+class ForecastCache {
+    static final int MAX_BYTES = 256 * 1024;
+
+    private static final int ROW_OVERHEAD_BYTES = 16;
+    private static final int CELL_OVERHEAD_BYTES = 16;
+
+    private static class Entry {
+        final String locationSetting;
+        final String[] columns;
+        final Object[][] rows;
+        final int bytes;
+
+        Entry(String locationSetting, String[] columns, Object[][] rows, int bytes) {
+            this.locationSetting = locationSetting;
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Entry entry) {
+            return entry.bytes;
+        }
+    };
+    private long mGeneration;
+
+    static String buildKey(int match, String locationSetting, long date, String[] projection,
+                           String sortOrder) {
+        return match + "\n" + locationSetting + "\n" + date + "\n" + Arrays.toString(projection)
+                + "\n" + sortOrder;
+    }
+
+    /**
+     * @return the generation to hand to {@link #put} for a query that starts now
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return a cursor over the cached rows, or null on a miss
+     */
+    Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        return toCursor(entry);
+    }
+
+    /**
+     * Reads the query's rows and caches them, unless the data changed since {@code generation}
+     * or they are too big to be worth keeping.  The cursor is closed.
+     *
+     * @return a cursor over the same rows
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor put(String key, String locationSetting, Cursor cursor, long generation) {
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        int bytes = 0;
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                bytes += ROW_OVERHEAD_BYTES;
+                for (int column = 0; column < columns.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String value = cursor.getString(column);
+                            row[column] = value;
+                            bytes += 2 * value.length();
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(column);
+                            row[column] = blob;
+                            bytes += blob.length;
+                            break;
+                        default:
+                            break;
+                    }
+                    bytes += CELL_OVERHEAD_BYTES;
+                }
+                rows[i] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Entry entry = new Entry(locationSetting, columns, rows, bytes);
+        synchronized (this) {
+            // Leave room for other locations and projections
+            if (generation == mGeneration && bytes <= MAX_BYTES / 8) {
+                mEntries.put(key, entry);
+            }
+        }
+        return toCursor(entry);
+    }
+
+    /**
+     * Drops the entries of these location settings.
+     */
+    synchronized void invalidate(Collection<String> locationSettings) {
+        mGeneration++;
+        if (locationSettings.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, Entry> entry : mEntries.snapshot().entrySet()) {
+            if (locationSettings.contains(entry.getValue().locationSetting)) {
+                mEntries.remove(entry.getKey());
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.evictAll();
+    }
+
+    int hitCount() {
+        return mEntries.hitCount();
+    }
+
+    int missCount() {
+        return mEntries.missCount();
+    }
+
+    int evictionCount() {
+        return mEntries.evictionCount();
+    }
+
+    private static Cursor toCursor(Entry entry) {
+        MatrixCursor cursor = new MatrixCursor(entry.columns, entry.rows.length);
+        for (Object[] row : entry.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.v4.util.LruCache;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the location row of each location setting, so a forecast query can read the
+ * weather table by {@code location_id} alone instead of joining the location table to find it.
+ * The location columns a query asks for are filled in from the remembered row.
+ * <p>
+ * At most {@link #MAX_LOCATIONS} rows are remembered, least recently used first out, so syncing
+ * thousands of locations doesn't keep all of them in memory.
+ * <p>
+ * The provider invalidates the settings of every location row it writes.  As in
+ * {@link ForecastCache}, each invalidation starts a new generation, and a lookup that started in
+ * an older one is not remembered.
+ */
+class LocationResolver {
+    // Far more than the forecast list, the widgets and a sync of the stored locations go through
+    // between two writes of the location table
+    static final int MAX_LOCATIONS = 256;
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final Set<String> WEATHER_COLUMNS = new HashSet<>(Arrays.asList(
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES));
+
+    /**
+     * A location row, with each column as the SQL literal a projection selects it by.
+     */
+    static class Location {
+        final long id;
+        final Map<String, String> literals;
+
+        Location(long id, Map<String, String> literals) {
+            this.id = id;
+            this.literals = literals;
+        }
+    }
+
+    private final LruCache<String, Location> mLocations;
+    private long mGeneration;
+    private int mHitCount;
+    private int mMissCount;
+
+    LocationResolver() {
+        this(MAX_LOCATIONS);
+    }
+
+    LocationResolver(int maxLocations) {
+        mLocations = new LruCache<>(maxLocations);
+    }
+
+    /**
+     * @return the location row of the setting, or null if there is none
+     */
+    Location resolve(SQLiteDatabase db, String locationSetting) {
+        long generation;
+        synchronized (this) {
+            Location location = mLocations.get(locationSetting);
+            if (location != null) {
+                mHitCount++;
+                return location;
+            }
+            mMissCount++;
+            generation = mGeneration;
+        }
+
+        Location location = null;
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, LOCATION_COLUMNS,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                location = new Location(cursor.getLong(0), readLiterals(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (location == null) {
+            // Not remembered, so the next read looks again
+            return null;
+        }
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mLocations.put(locationSetting, location);
+            }
+        }
+        return location;
+    }
+
+    private static Map<String, String> readLiterals(Cursor cursor) {
+        Map<String, String> literals = new HashMap<>();
+        literals.put(LocationEntry._ID, Long.toString(cursor.getLong(0)));
+        literals.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                DatabaseUtils.sqlEscapeString(cursor.getString(1)));
+        literals.put(LocationEntry.COLUMN_CITY_NAME,
+                DatabaseUtils.sqlEscapeString(cursor.getString(2)));
+        literals.put(LocationEntry.COLUMN_COORD_LAT, Double.toString(cursor.getDouble(3)));
+        literals.put(LocationEntry.COLUMN_COORD_LONG, Double.toString(cursor.getDouble(4)));
+        return literals;
+    }
+
+    /**
+     * Rewrites a projection of the weather and location join into one of the weather table
+     * alone, with the location's columns as literals.
+     *
+     * @return the projection, or null if it selects everything or something that only the join
+     * can answer
+     */
+    static String[] toWeatherProjection(String[] projection, Location location) {
+        if (projection == null) {
+            return null;
+        }
+        String weatherPrefix = WeatherEntry.TABLE_NAME + ".";
+        String locationPrefix = LocationEntry.TABLE_NAME + ".";
+        String[] weatherProjection = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i];
+            if (column.startsWith(weatherPrefix)
+                    && WEATHER_COLUMNS.contains(column.substring(weatherPrefix.length()))) {
+                weatherProjection[i] = column;
+                continue;
+            }
+            if (column.startsWith(locationPrefix)) {
+                column = column.substring(locationPrefix.length());
+            } else if (WEATHER_COLUMNS.contains(column)) {
+                // An unqualified _id would be ambiguous in the join, so it isn't the location's
+                weatherProjection[i] = column;
+                continue;
+            }
+            String literal = location.literals.get(column);
+            if (literal == null) {
+                return null;
+            }
+            weatherProjection[i] = literal + " AS " + column;
+        }
+        return weatherProjection;
+    }
+
+    /**
+     * Forgets the location rows of these settings.
+     */
+    synchronized void invalidate(Collection<String> locationSettings) {
+        mGeneration++;
+        for (String locationSetting : locationSettings) {
+            if (locationSetting != null) {
+                mLocations.remove(locationSetting);
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mLocations.evictAll();
+    }
+
+    synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    synchronized int missCount() {
+        return mMissCount;
+    }
+}
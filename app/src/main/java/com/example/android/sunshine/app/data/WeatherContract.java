@@ -17,9 +17,12 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -42,16 +45,19 @@ public class WeatherContract {
     // as the ContentProvider hasn't been given any information on what to do with "givemeroot".
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
+    public static final String PATH_WEATHER_PAGE = "weather_page";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_STATS = "sync_stats";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of their day in the user's time zone.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return EpochDays.normalize(startDate, EpochDays.getDefaultZone());
+    }
+
+    // The same, in a zone other than the user's.
+    public static long normalizeDate(long startDate, TimeZone zone) {
+        return EpochDays.normalize(startDate, zone);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -97,6 +103,16 @@ public class WeatherContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
 
+        // Weather a page at a time, each page starting after the key its query parameter names.
+        // The pages of a location are keyed by date, those of the whole table by _id.
+        public static final Uri PAGE_CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_PAGE).build();
+        public static final String PARAM_AFTER = "after";
+        public static final String PARAM_LIMIT = "limit";
+        public static final int DEFAULT_PAGE_SIZE = 50;
+        // Cursor extra with the key the next page starts after.  Missing from the last page.
+        public static final String EXTRA_NEXT_KEY = "next_key";
+
         public static final String TABLE_NAME = "weather";
 
         // Column with the foreign key into the location table.
@@ -149,6 +165,58 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * @return the page of the location's days after {@code afterDate}, 0 for the first one
+         */
+        public static Uri buildWeatherLocationPage(String locationSetting, long afterDate,
+                                                   int limit) {
+            return PAGE_CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_AFTER, Long.toString(afterDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /**
+         * @return the page of weather rows after the row with {@code afterId}, 0 for the first one
+         */
+        public static Uri buildWeatherPage(long afterId, int limit) {
+            return PAGE_CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER, Long.toString(afterId))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /**
+         * @return the URI of the page after {@code page}, which was queried from {@code pageUri},
+         * or null if it was the last one
+         */
+        public static Uri getNextPageUri(Uri pageUri, Cursor page) {
+            Bundle extras = page.getExtras();
+            if (extras == null || !extras.containsKey(EXTRA_NEXT_KEY)) {
+                return null;
+            }
+            long nextKey = extras.getLong(EXTRA_NEXT_KEY);
+            int limit = getPageLimitFromUri(pageUri);
+            if (pageUri.getPathSegments().size() > 1) {
+                return buildWeatherLocationPage(getLocationSettingFromUri(pageUri), nextKey, limit);
+            }
+            return buildWeatherPage(nextKey, limit);
+        }
+
+        public static long getPageAfterFromUri(Uri uri) {
+            String afterString = uri.getQueryParameter(PARAM_AFTER);
+            if (null != afterString && afterString.length() > 0)
+                return Long.parseLong(afterString);
+            else
+                return 0;
+        }
+
+        public static int getPageLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            if (null != limitString && limitString.length() > 0)
+                return Integer.parseInt(limitString);
+            else
+                return DEFAULT_PAGE_SIZE;
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -165,4 +233,90 @@ public class WeatherContract {
                 return 0;
         }
     }
+    /* Inner class that defines the table contents of the sync stats table, which keeps how long
+       each phase of the most recent syncs took.  Durations are in microseconds. */
+    public static final class SyncStatsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_STATS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_STATS;
+
+        public static final String TABLE_NAME = "sync_stats";
+
+        // How many syncs are kept.  Older ones are dropped as new ones come in.
+        public static final int HISTORY_SIZE = 100;
+
+        // When the sync started, in milliseconds since the epoch
+        public static final String COLUMN_STARTED = "started";
+        // From the start of the sync to the last row written, fan-out not included
+        public static final String COLUMN_TOTAL = "total_us";
+        // Number of locations synced
+        public static final String COLUMN_LOCATIONS = "locations";
+
+        // Wall clock time of the download phase, with the workers running side by side
+        public static final String COLUMN_FETCH = "fetch_us";
+        // Per-location phases of the download, summed over all locations
+        public static final String COLUMN_CONNECT = "connect_us";
+        public static final String COLUMN_FIRST_BYTE = "first_byte_us";
+        public static final String COLUMN_DOWNLOAD = "download_us";
+        public static final String COLUMN_PARSE = "parse_us";
+
+        // Phases of storing the forecasts, on the sync thread
+        public static final String COLUMN_LOCATION_LOOKUP = "location_lookup_us";
+        public static final String COLUMN_DIFF = "diff_us";
+        // The inserts, the location updates and the purge of the days gone by, applied as
+        // one batch
+        public static final String COLUMN_INSERT = "insert_us";
+        // Until the slowest consumer of the new forecast finished.  Filled in after the sync,
+        // and 0 if nothing changed
+        public static final String COLUMN_FAN_OUT = "fan_out_us";
+
+        // Response body bytes read, over all locations
+        public static final String COLUMN_BYTES_RECEIVED = "bytes_received";
+        public static final String COLUMN_ROWS_INSERTED = "rows_inserted";
+        public static final String COLUMN_ROWS_UPDATED = "rows_updated";
+        public static final String COLUMN_ROWS_UNCHANGED = "rows_unchanged";
+        public static final String COLUMN_ROWS_DELETED = "rows_deleted";
+        // Number of locations that could not be synced
+        public static final String COLUMN_ERRORS = "errors";
+
+        public static Uri buildSyncStatsUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    /* Inner class that defines the maintenance call of the provider, which purges old forecasts
+       and locations nothing is left of, and gives the freed pages back to the file system. */
+    public static final class Maintenance {
+
+        // Passed to ContentResolver.call on BASE_CONTENT_URI, with the location setting to keep
+        // even without a forecast as its argument
+        public static final String METHOD_MAINTAIN = "maintain";
+
+        // Extra with how many days before today forecasts are kept.  The sync purges with the
+        // default window too.
+        public static final String EXTRA_RETENTION_DAYS = "retention_days";
+        public static final int DEFAULT_RETENTION_DAYS = 7;
+
+        // What the call returns
+        public static final String RESULT_ROWS_PURGED = "rows_purged";
+        public static final String RESULT_LOCATIONS_REMOVED = "locations_removed";
+        // The location settings of the removed locations, as a String array
+        public static final String RESULT_REMOVED_LOCATION_SETTINGS = "removed_location_settings";
+        // Size of the database file, in bytes, after the maintenance
+        public static final String RESULT_DATABASE_BYTES = "database_bytes";
+        public static final String RESULT_PAGES_RECLAIMED = "pages_reclaimed";
+        public static final String RESULT_DURATION_MS = "duration_ms";
+
+        /**
+         * @param today         the day to count back from, as counted by {@link EpochDays}
+         * @param retentionDays how many days before today forecasts are kept
+         * @return the first date kept.  Forecasts of earlier dates are purged.
+         */
+        public static long getRetentionCutoff(int today, int retentionDays) {
+            return EpochDays.startOfDay(today - retentionDays, EpochDays.getDefaultZone());
+        }
+    }
 }
@@ -15,84 +15,288 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * Manages a local database for weather data.
+ * <p>
+ * The database runs in write-ahead log mode where the platform supports it (Honeycomb on), so
+ * the forecast list, the widgets, Muzei and the notification keep reading while a sync writes,
+ * instead of waiting for its transaction to finish.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Checkpoint once the log grows past this many pages, about 2 MB, which a sync of every
+    // stored location stays well below.  A long log makes every read search it.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 512;
+    // What is left of the log file after a checkpoint, so one huge write doesn't keep its
+    // space forever
+    private static final long JOURNAL_SIZE_LIMIT = 1024 * 1024;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
-                LocationEntry._ID + " INTEGER PRIMARY KEY," +
-                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
-                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
-                " );";
-
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        configure(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean there is no onConfigure, and WAL has to be turned on by hand
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            configure(db);
+            enableWriteAheadLogging(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    private static void configure(SQLiteDatabase db) {
+        // Only takes effect when the database file is created.  Older files are converted
+        // by the first maintenance, which then only has to free what is unused.
+        pragma(db, "auto_vacuum = INCREMENTAL");
+        // In WAL mode NORMAL only syncs on checkpoints.  A crash can lose the last sync, which
+        // the next one fetches again, but never corrupts the database.
+        pragma(db, "synchronous = NORMAL");
+        pragma(db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        pragma(db, "journal_size_limit = " + JOURNAL_SIZE_LIMIT);
+    }
+
+    /**
+     * Runs a PRAGMA through rawQuery, since execSQL refuses the ones that return a row on some
+     * versions.  Every row is read, as some, like incremental_vacuum, do their work a row at a
+     * time.
+     */
+    static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the value of a PRAGMA that returns a number, like page_count
+     */
+    static long queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Create a table to hold locations.  A location consists of the string supplied in the
+    // location setting, the city name, and the latitude and longitude
+    private static final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY," +
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+            " );";
+
+    private static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
 
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy.
+            // Every read picks one location first and then its days, so the location
+            // goes first in the index that comes with the constraint.
+            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // The forecast list, the widgets, Muzei and the wearable only need these columns, so
+    // they are answered from this index without touching the table rows.  The detail
+    // view reads the rest for a single day through the unique index above.
+    private static final String SQL_CREATE_WEATHER_FORECAST_INDEX = "CREATE INDEX " +
+            WeatherEntry.TABLE_NAME + "_forecast ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    // One row per sync, so the time spent in each phase can be graphed in the field
+    private static final String SQL_CREATE_SYNC_STATS_TABLE = "CREATE TABLE " + SyncStatsEntry.TABLE_NAME + " (" +
+            SyncStatsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            SyncStatsEntry.COLUMN_STARTED + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_TOTAL + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_LOCATIONS + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_FETCH + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_CONNECT + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_FIRST_BYTE + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_DOWNLOAD + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_PARSE + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_LOCATION_LOOKUP + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_DIFF + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_INSERT + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_FAN_OUT + " INTEGER NOT NULL DEFAULT 0, " +
+            SyncStatsEntry.COLUMN_BYTES_RECEIVED + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_ROWS_INSERTED + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_ROWS_UPDATED + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_ROWS_UNCHANGED + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_ROWS_DELETED + " INTEGER NOT NULL, " +
+            SyncStatsEntry.COLUMN_ERRORS + " INTEGER NOT NULL " +
+            " );";
+
+    // The oldest version the migrations below start from.  Anything older is dropped.
+    static final int FIRST_MIGRATED_VERSION = 2;
+
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_FORECAST_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_STATS_TABLE);
     }
 
+    /**
+     * Brings the database up to date one version at a time, changing the tables in place, so
+     * the stored locations and forecasts survive and the app has something to show before its
+     * first sync after an update.  SQLiteOpenHelper runs this in a transaction, so a migration
+     * that fails leaves the old version as it was.
+     * <p>
+     * When you change the schema, add a case for the version you are leaving.  The cases use
+     * the CREATE statements above, so if a later version changes a table one of them creates,
+     * copy that table's old statement into the case first.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < FIRST_MIGRATED_VERSION) {
+            // Too old to migrate.  This database is only a cache for online data, so start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncStatsEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            upgradeFrom(sqLiteDatabase, version);
+        }
+    }
+
+    private static void upgradeFrom(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                db.execSQL(SQL_CREATE_SYNC_STATS_TABLE);
+                break;
+            case 3:
+                // Added the location's city_id, which version 6 drops again
+                break;
+            case 4:
+                // SQLite can't change a table's constraints, so the weather table is copied into
+                // one with the location first in its unique key
+                rebuildTable(db, WeatherEntry.TABLE_NAME, SQL_CREATE_WEATHER_TABLE);
+                db.execSQL(SQL_CREATE_WEATHER_FORECAST_INDEX);
+                break;
+            case 5:
+                // Drops delete_us.  The purge of old days runs in the same batch as the
+                // inserts, so it was never timed on its own.
+                rebuildTable(db, SyncStatsEntry.TABLE_NAME, SQL_CREATE_SYNC_STATS_TABLE);
+                break;
+            case 6:
+                // Drops city_id.  OpenWeatherMap has no group request for daily forecasts, so
+                // the ids were never used.
+                rebuildTable(db, LocationEntry.TABLE_NAME, SQL_CREATE_LOCATION_TABLE);
+                break;
+            default:
+                throw new IllegalStateException("No migration from database version " + version);
+        }
+    }
+
+    /**
+     * Replaces the table with one created by {@code createSql}, keeping its rows and row ids.
+     * Columns the new table doesn't have are dropped.  Every column it adds needs a default or
+     * has to allow NULL.  The table's indexes go with it, so the caller creates them again.
+     * <p>
+     * Follows the order SQLite documents for changing a table: the new table is created under
+     * another name and renamed once the old one is gone.  Renaming the old table out of the way
+     * instead would make SQLite 3.26 and later point the foreign keys of other tables at it.
+     */
+    private static void rebuildTable(SQLiteDatabase db, String table, String createSql) {
+        String createPrefix = "CREATE TABLE " + table + " (";
+        if (!createSql.startsWith(createPrefix)) {
+            throw new IllegalArgumentException("Not the CREATE statement of " + table);
+        }
+        String newTable = table + "_new";
+        db.execSQL("CREATE TABLE " + newTable + " (" + createSql.substring(createPrefix.length()));
+        Set<String> kept = getColumns(db, newTable);
+        kept.retainAll(getColumns(db, table));
+        String columns = TextUtils.join(", ", kept);
+        db.execSQL("INSERT INTO " + newTable + " (" + columns + ") SELECT " + columns +
+                " FROM " + table);
+        db.execSQL("DROP TABLE " + table);
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + table);
+    }
+
+    private static Set<String> getColumns(SQLiteDatabase db, String table) {
+        Set<String> columns = new LinkedHashSet<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
     }
 }
@@ -16,26 +16,63 @@
 package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
+    // The id of the new zone in ACTION_TIMEZONE_CHANGED
+    private static final String EXTRA_TIME_ZONE = "time-zone";
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // The batch being applied on this thread, if any
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+    private final ForecastCache mCache = new ForecastCache();
+    private final LocationResolver mLocationResolver = new LocationResolver();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_PAGE = 110;
+    static final int WEATHER_WITH_LOCATION_PAGE = 111;
     static final int LOCATION = 300;
+    static final int SYNC_STATS = 400;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,45 +89,63 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND date > ?
+    static final String sLocationSettingAfterDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    //weather.location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND date = ?
+    static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //weather.location_id = ? AND date > ?
+    static final String sLocationIdAfterDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
-
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            return queryWeatherByLocationSetting(locationSetting, projection,
+                    sLocationIdSelection, sLocationSettingSelection, null, sortOrder, null);
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            return queryWeatherByLocationSetting(locationSetting, projection,
+                    sLocationIdWithStartDateSelection, sLocationSettingWithStartDateSelection,
+                    Long.toString(startDate), sortOrder, null);
         }
-
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
@@ -98,13 +153,49 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return queryWeatherByLocationSetting(locationSetting, projection,
+                sLocationIdAndDaySelection, sLocationSettingAndDaySelection,
+                Long.toString(date), sortOrder, null);
+    }
+
+    /**
+     * Reads the weather table alone by the location's row id when the location is known and
+     * the projection allows it, and joins the location table to find it otherwise.
+     *
+     * @param dateArg the selection argument after the location, or null if there is none
+     * @param limit the LIMIT clause, or null for every row
+     */
+    private Cursor queryWeatherByLocationSetting(String locationSetting, String[] projection,
+                                                 String locationIdSelection,
+                                                 String locationSettingSelection,
+                                                 String dateArg, String sortOrder,
+                                                 String limit) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        LocationResolver.Location location = mLocationResolver.resolve(db, locationSetting);
+        String[] weatherProjection = location != null
+                ? LocationResolver.toWeatherProjection(projection, location) : null;
+        if (weatherProjection != null) {
+            String locationId = Long.toString(location.id);
+            return db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    weatherProjection,
+                    locationIdSelection,
+                    dateArg == null ? new String[]{locationId} : new String[]{locationId, dateArg},
+                    null,
+                    null,
+                    sortOrder,
+                    limit
+            );
+        }
+
+        return sWeatherByLocationSettingQueryBuilder.query(db,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                locationSettingSelection,
+                dateArg == null
+                        ? new String[]{locationSetting} : new String[]{locationSetting, dateArg},
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                limit
         );
     }
 
@@ -128,8 +219,12 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_PAGE, WEATHER_PAGE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_PAGE + "/*", WEATHER_WITH_LOCATION_PAGE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATS, SYNC_STATS);
         return matcher;
     }
 
@@ -140,6 +235,14 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        // The provider is created with the process, so this keeps EpochDays' default zone
+        // current for the app, the widgets and the sync alike
+        getContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                EpochDays.onDefaultZoneChanged(intent.getStringExtra(EXTRA_TIME_ZONE));
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
         return true;
     }
 
@@ -162,8 +265,14 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_PAGE:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_PAGE:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_STATS:
+                return WeatherContract.SyncStatsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,16 +284,14 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        Uri notificationUri = uri;
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getCachedWeather(match, uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -200,6 +307,20 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "weather_page/*"
+            case WEATHER_WITH_LOCATION_PAGE: {
+                retCursor = getWeatherPageByLocationSetting(uri, projection);
+                // Where the changes to the location's forecast are announced
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            }
+            // "weather_page"
+            case WEATHER_PAGE: {
+                retCursor = getWeatherPage(uri, projection, selection, selectionArgs);
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            }
             // "location"
             case LOCATION: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,14 +334,176 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_stats"
+            case SYNC_STATS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncStatsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        // most recent sync first
+                        sortOrder != null ? sortOrder : WeatherContract.SyncStatsEntry._ID + " DESC"
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
+    /**
+     * Reads the page of a location's days after the date in the URI, in date order.
+     */
+    private Cursor getWeatherPageByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        int limit = getPageLimit(uri);
+        Cursor cursor = queryWeatherByLocationSetting(locationSetting,
+                withColumn(projection, WeatherContract.WeatherEntry.COLUMN_DATE),
+                sLocationIdAfterDateSelection, sLocationSettingAfterDateSelection,
+                Long.toString(WeatherContract.WeatherEntry.getPageAfterFromUri(uri)),
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC", Integer.toString(limit));
+        return toPage(cursor, WeatherContract.WeatherEntry.COLUMN_DATE, limit);
+    }
+
+    /**
+     * Reads the page of weather rows matching the selection after the row id in the URI, in
+     * row id order.  Dates repeat across locations, so they can't be the key here.
+     */
+    private Cursor getWeatherPage(Uri uri, String[] projection, String selection,
+                                  String[] selectionArgs) {
+        int limit = getPageLimit(uri);
+        String afterSelection = WeatherContract.WeatherEntry._ID + " > ?";
+        String afterArg = Long.toString(WeatherContract.WeatherEntry.getPageAfterFromUri(uri));
+        String[] args;
+        if (selection == null) {
+            selection = afterSelection;
+            args = new String[]{afterArg};
+        } else {
+            selection = "(" + selection + ") AND " + afterSelection;
+            int argCount = selectionArgs != null ? selectionArgs.length : 0;
+            args = new String[argCount + 1];
+            if (argCount > 0) {
+                System.arraycopy(selectionArgs, 0, args, 0, argCount);
+            }
+            args[argCount] = afterArg;
+        }
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                withColumn(projection, WeatherContract.WeatherEntry._ID),
+                selection,
+                args,
+                null,
+                null,
+                WeatherContract.WeatherEntry._ID + " ASC",
+                Integer.toString(limit)
+        );
+        return toPage(cursor, WeatherContract.WeatherEntry._ID, limit);
+    }
+
+    private static int getPageLimit(Uri uri) {
+        int limit = WeatherContract.WeatherEntry.getPageLimitFromUri(uri);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + uri);
+        }
+        return limit;
+    }
+
+    /**
+     * @return the projection with the column added at the end if it doesn't select it, so the
+     * page's key can be read from its last row
+     */
+    private static String[] withColumn(String[] projection, String column) {
+        if (projection == null) {
+            return null;
+        }
+        String qualified = WeatherContract.WeatherEntry.TABLE_NAME + "." + column;
+        for (String projected : projection) {
+            if (projected.equals(column) || projected.equals(qualified)) {
+                return projection;
+            }
+        }
+        String[] withColumn = Arrays.copyOf(projection, projection.length + 1);
+        withColumn[projection.length] = qualified;
+        return withColumn;
+    }
+
+    /**
+     * Adds the key of the page's last row as the next page's key, unless the page wasn't full.
+     */
+    private static Cursor toPage(Cursor cursor, String keyColumn, int limit) {
+        Bundle extras = new Bundle();
+        if (cursor.getCount() == limit && cursor.moveToLast()) {
+            extras.putLong(WeatherContract.WeatherEntry.EXTRA_NEXT_KEY,
+                    cursor.getLong(cursor.getColumnIndexOrThrow(keyColumn)));
+            cursor.moveToPosition(-1);
+        }
+        return new PageCursor(cursor, extras);
+    }
+
+    /**
+     * A page of a paged query, with the key of the next page in its extras.
+     */
+    private static class PageCursor extends CursorWrapper {
+        private final Bundle mExtras;
+
+        PageCursor(Cursor cursor, Bundle extras) {
+            super(cursor);
+            mExtras = extras;
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return mExtras;
+        }
+    }
+
+    /**
+     * Answers a forecast query for a location setting from the cache, or runs it and caches its
+     * rows.
+     */
+    private Cursor getCachedWeather(int match, Uri uri, String[] projection, String sortOrder) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // The cache needs Cursor.getType to copy the rows
+            return match == WEATHER_WITH_LOCATION_AND_DATE
+                    ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                    : getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String key = ForecastCache.buildKey(match, locationSetting, date, projection, sortOrder);
+
+        Cursor cursor = mCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mCache.getGeneration();
+        cursor = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        return mCache.put(key, locationSetting, cursor, generation);
+    }
+
+    /**
+     * @return how many forecast queries were answered from the cache
+     */
+    int getCacheHitCount() {
+        return mCache.hitCount();
+    }
+
+    /**
+     * @return how many forecast queries had to go to the database
+     */
+    int getCacheMissCount() {
+        return mCache.missCount();
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -232,12 +515,14 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                normalizeDate(values, EpochDays.getDefaultZone());
+                long _id = insertWeather(db, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                locationIdsChanged(db,
+                        Collections.singleton(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
                 break;
             }
             case LOCATION: {
@@ -246,12 +531,31 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                // An earlier query may have resolved a row the setting had before, or cached
+                // that the location had no forecast
+                Set<String> inserted = Collections.singleton(values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
+                locationRowsChanged(inserted);
+                locationsChanged(inserted);
+                notifyChange(uri);
+                break;
+            }
+            case SYNC_STATS: {
+                long _id = db.insert(WeatherContract.SyncStatsEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.SyncStatsEntry.buildSyncStatsUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Only keep the most recent syncs
+                db.delete(WeatherContract.SyncStatsEntry.TABLE_NAME,
+                        WeatherContract.SyncStatsEntry._ID + " <= ?",
+                        new String[]{Long.toString(_id - WeatherContract.SyncStatsEntry.HISTORY_SIZE)});
+                notifyChange(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -260,32 +564,51 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
-        // this makes delete all rows return the number of rows deleted
-        if ( null == selection ) selection = "1";
+        Set<String> changed;
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+                changed = getWeatherLocationSettings(db, selection, selectionArgs);
+                rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        allRows(selection), selectionArgs);
+                if (rowsDeleted != 0) {
+                    locationsChanged(changed);
+                }
+                // The location notifications cover the weather URIs
+                return rowsDeleted;
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                changed = getLocationSettings(db, selection, selectionArgs);
+                rowsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                        allRows(selection), selectionArgs);
+                if (rowsDeleted != 0) {
+                    locationRowsChanged(changed);
+                    locationsChanged(changed);
+                }
+                break;
+            case SYNC_STATS:
+                rowsDeleted = db.delete(WeatherContract.SyncStatsEntry.TABLE_NAME,
+                        allRows(selection), selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    // this makes delete all rows return the number of rows deleted
+    private static String allRows(String selection) {
+        return selection != null ? selection : "1";
+    }
+
+    private void normalizeDate(ContentValues values, TimeZone zone) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(dateValue, zone));
         }
     }
 
@@ -295,22 +618,46 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        Set<String> changed;
 
         switch (match) {
             case WEATHER:
-                normalizeDate(values);
+                normalizeDate(values, EpochDays.getDefaultZone());
+                changed = getWeatherLocationSettings(db, selection, selectionArgs);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
-                break;
+                if (rowsUpdated != 0) {
+                    locationsChanged(changed);
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                        // Rows moved to another location
+                        locationIdsChanged(db, Collections.singleton(
+                                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
+                    }
+                }
+                // The location notifications cover the weather URIs
+                return rowsUpdated;
             case LOCATION:
+                changed = getLocationSettings(db, selection, selectionArgs);
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    locationRowsChanged(changed);
+                    locationsChanged(changed);
+                    if (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)) {
+                        locationsChanged(Collections.singleton(values.getAsString(
+                                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)));
+                    }
+                }
+                break;
+            case SYNC_STATS:
+                rowsUpdated = db.update(WeatherContract.SyncStatsEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -319,29 +666,514 @@ public class WeatherProvider extends ContentProvider {
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        int returnCount;
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                TimeZone zone = EpochDays.getDefaultZone();
+                for (ContentValues value : values) {
+                    normalizeDate(value, zone);
+                }
+                returnCount = bulkInsert(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        WEATHER_INSERT_COLUMNS, values);
+                Set<Long> locationIds = new HashSet<>();
+                for (ContentValues value : values) {
+                    locationIds.add(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                }
+                if (returnCount != 0) {
+                    // One notification per location the rows were for
+                    locationIdsChanged(db, locationIds);
+                }
+                return returnCount;
+            case LOCATION:
+                returnCount = bulkInsert(db, WeatherContract.LocationEntry.TABLE_NAME,
+                        LOCATION_INSERT_COLUMNS, values);
+                Set<String> locationSettings = new HashSet<>();
+                for (ContentValues value : values) {
+                    locationSettings.add(value.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
+                }
+                if (returnCount != 0) {
+                    locationRowsChanged(locationSettings);
+                    locationsChanged(locationSettings);
+                    notifyChange(uri);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    // The columns the bulk inserts bind, in order.  A column that is left out of a row is bound
+    // to NULL, which is what SQLiteDatabase.insert does too as long as none of them has a
+    // DEFAULT.
+    private static final String[] WEATHER_INSERT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String[] LOCATION_INSERT_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    /**
+     * Inserts all rows in one transaction through a single compiled INSERT, so SQLite parses it
+     * once instead of once per row.  A row with a column that isn't in {@code columns} goes
+     * through {@link SQLiteDatabase#insert} instead.  Like that method, a row that breaks a
+     * constraint is skipped rather than failing the others.
+     *
+     * @return the number of rows inserted
+     */
+    private static int bulkInsert(SQLiteDatabase db, String table, String[] columns,
+                                  ContentValues[] values) {
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement(buildInsertSql(table, columns));
+            try {
+                for (ContentValues value : values) {
+                    if (bindRow(statement, columns, value) != value.size()) {
+                        if (db.insert(table, null, value) != -1) {
+                            returnCount++;
+                        }
+                        continue;
+                    }
+                    try {
+                        statement.executeInsert();
+                        returnCount++;
+                    } catch (SQLiteConstraintException e) {
+                        Log.e(LOG_TAG, "Error inserting " + value, e);
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private static String buildInsertSql(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+                params.append(',');
+            }
+            sql.append(columns[i]);
+            params.append('?');
+        }
+        return sql.append(") VALUES (").append(params).append(')').toString();
+    }
+
+    /**
+     * Binds the row to the statement's parameters by column position.
+     *
+     * @return how many of the row's values were bound
+     */
+    private static int bindRow(SQLiteStatement statement, String[] columns, ContentValues row) {
+        int bound = 0;
+        for (int i = 0; i < columns.length; i++) {
+            Object value = row.get(columns[i]);
+            int index = i + 1;
+            if (value == null) {
+                statement.bindNull(index);
+                if (row.containsKey(columns[i])) {
+                    bound++;
+                }
+                continue;
+            }
+            if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+            bound++;
+        }
+        return bound;
+    }
+
+    /**
+     * Applies all the operations in one transaction, so readers see either none of them or all
+     * of them, and notifies each changed URI and location once the transaction has committed,
+     * however many operations touched it.  If any operation fails, none of them is applied.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        ContentProviderResult[] results;
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            endBatch(db, batch);
+        }
+        notifyBatch(batch);
+        return results;
+    }
+
+    /**
+     * Ends the transaction of a batch started on this thread, and then drops what readers may
+     * have cached from before it committed.
+     */
+    private void endBatch(SQLiteDatabase db, Batch batch) {
+        if (batch.weatherInsert != null) {
+            batch.weatherInsert.close();
+        }
+        mBatch.remove();
+        db.endTransaction();
+        // Readers may have cached what was there before the commit
+        if (batch.allLocationRowsChanged) {
+            mLocationResolver.invalidateAll();
+        } else if (!batch.changedLocationRows.isEmpty()) {
+            mLocationResolver.invalidate(batch.changedLocationRows);
+        }
+        if (batch.allLocationsChanged) {
+            mCache.invalidateAll();
+        } else {
+            mCache.invalidate(batch.changedLocationSettings);
+        }
+    }
+
+    /**
+     * Notifies each URI and location a batch changed, once its transaction has committed.
+     */
+    private void notifyBatch(Batch batch) {
+        for (Uri uri : batch.changedUris) {
+            notifyChange(uri);
+        }
+        notifyLocationsChanged(batch.allLocationsChanged, batch.changedLocationSettings);
+    }
+
+    /**
+     * What a batch holds on to until its transaction ends: the URIs to notify, the location
+     * settings to drop from the cache and notify and those whose location rows to resolve again
+     * once it has committed, and the weather INSERT compiled for its first weather row.
+     */
+    private static class Batch {
+        final Set<Uri> changedUris = new LinkedHashSet<>();
+        final Set<String> changedLocationSettings = new LinkedHashSet<>();
+        boolean allLocationsChanged;
+        final Set<String> changedLocationRows = new HashSet<>();
+        boolean allLocationRowsChanged;
+        // The location settings of the location ids its rows were inserted for
+        final Map<Long, String> locationSettings = new HashMap<>();
+        SQLiteStatement weatherInsert;
+    }
+
+    /**
+     * Drops the cached forecasts of the location settings and notifies the observers of their
+     * forecasts, or adds them to the batch being applied on this thread.  A null in the settings
+     * stands for every location.
+     */
+    private void locationsChanged(Collection<String> locationSettings) {
+        Batch batch = mBatch.get();
+        boolean all = locationSettings.contains(null);
+        if (batch != null) {
+            batch.allLocationsChanged |= all;
+            batch.changedLocationSettings.addAll(locationSettings);
+            return;
+        }
+        if (all) {
+            mCache.invalidateAll();
+        } else {
+            mCache.invalidate(locationSettings);
+        }
+        notifyLocationsChanged(all, locationSettings);
+    }
+
+    /**
+     * Forgets the resolved location rows of the location settings, or adds them to the batch
+     * being applied on this thread.  A null in the settings stands for every location.
+     */
+    private void locationRowsChanged(Collection<String> locationSettings) {
+        Batch batch = mBatch.get();
+        boolean all = locationSettings.contains(null);
+        if (batch != null) {
+            batch.allLocationRowsChanged |= all;
+            batch.changedLocationRows.addAll(locationSettings);
+        } else if (all) {
+            mLocationResolver.invalidateAll();
+        } else {
+            mLocationResolver.invalidate(locationSettings);
+        }
+    }
+
+    /**
+     * Notifies the observers of the forecasts of each location setting.  A change to one
+     * location only wakes up what shows that location, plus anything watching all of
+     * {@link WeatherContract.WeatherEntry#CONTENT_URI} including its descendants.
+     */
+    private void notifyLocationsChanged(boolean all, Collection<String> locationSettings) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (all) {
+            // Reaches the observers of every location below it too
+            resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            return;
+        }
+        for (String locationSetting : locationSettings) {
+            resolver.notifyChange(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting), null);
+        }
+    }
+
+    /**
+     * Does what {@link #locationsChanged} does for the locations with these row ids.
+     */
+    private void locationIdsChanged(SQLiteDatabase db, Collection<Long> locationIds) {
+        Batch batch = mBatch.get();
+        Set<String> locationSettings = new HashSet<>();
+        List<Long> unknownIds = new ArrayList<>();
+        for (Long locationId : locationIds) {
+            if (locationId == null) {
+                // A row without a location can't be inserted anyway
+                continue;
+            }
+            String locationSetting = batch != null ? batch.locationSettings.get(locationId) : null;
+            if (locationSetting != null) {
+                locationSettings.add(locationSetting);
+            } else {
+                unknownIds.add(locationId);
+            }
+        }
+        if (!unknownIds.isEmpty()) {
+            StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID)
+                    .append(" IN (");
+            String[] selectionArgs = new String[unknownIds.size()];
+            for (int i = 0; i < selectionArgs.length; i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                selectionArgs[i] = Long.toString(unknownIds.get(i));
+            }
+            selection.append(')');
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID,
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    selection.toString(), selectionArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    locationSettings.add(cursor.getString(1));
+                    if (batch != null) {
+                        batch.locationSettings.put(cursor.getLong(0), cursor.getString(1));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        locationsChanged(locationSettings);
+    }
+
+    /**
+     * @return the location settings of the locations that have weather rows matching the
+     * selection, or a set holding null if there is no selection
+     */
+    private static Set<String> getWeatherLocationSettings(SQLiteDatabase db, String selection,
+                                                          String[] selectionArgs) {
+        if (selection == null) {
+            return Collections.<String>singleton(null);
+        }
+        return getLocationSettings(db, WeatherContract.LocationEntry._ID + " IN (SELECT "
+                + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM "
+                + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " + selection + ")",
+                selectionArgs);
+    }
+
+    /**
+     * @return the location settings of the locations matching the selection, or a set holding
+     * null if there is no selection
+     */
+    private static Set<String> getLocationSettings(SQLiteDatabase db, String selection,
+                                                   String[] selectionArgs) {
+        Set<String> locationSettings = new HashSet<>();
+        if (selection == null) {
+            locationSettings.add(null);
+            return locationSettings;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationSettings;
+    }
+
+    /**
+     * Notifies the observers of the uri, or adds it to the batch being applied on this thread.
+     */
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.changedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Inserts one weather row.  Within a batch every row reuses the INSERT compiled for the
+     * first one, as in {@link #bulkInsert(SQLiteDatabase, String, String[], ContentValues[])}.
+     *
+     * @return the row ID, or -1 if the row could not be inserted
+     */
+    private long insertWeather(SQLiteDatabase db, ContentValues values) {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+        }
+        if (batch.weatherInsert == null) {
+            batch.weatherInsert = db.compileStatement(
+                    buildInsertSql(WeatherContract.WeatherEntry.TABLE_NAME, WEATHER_INSERT_COLUMNS));
+        }
+        if (bindRow(batch.weatherInsert, WEATHER_INSERT_COLUMNS, values) != values.size()) {
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+        }
+        try {
+            return batch.weatherInsert.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    // How many pages each step of the incremental vacuum frees, about 1 MB.  The write lock is
+    // released between steps, so a sync doesn't wait for the whole vacuum.
+    private static final int VACUUM_STEP_PAGES = 256;
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.Maintenance.METHOD_MAINTAIN.equals(method)) {
+            int retentionDays = extras != null
+                    ? extras.getInt(WeatherContract.Maintenance.EXTRA_RETENTION_DAYS,
+                            WeatherContract.Maintenance.DEFAULT_RETENTION_DAYS)
+                    : WeatherContract.Maintenance.DEFAULT_RETENTION_DAYS;
+            return maintain(arg, retentionDays);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Deletes the forecasts of the days more than {@code retentionDays} before today, and then
+     * the locations without any forecast left except {@code keepLocationSetting}.  That's how
+     * locations that are no longer synced go away.  Their settings are returned, so the caller
+     * can drop what else it keeps about them.  The pages freed are given back to the file
+     * system a step at a time, and the statistics the query planner uses are brought up to date.
+     * <p>
+     * The database is in WAL mode, so readers are never blocked.  The caller has to be off the
+     * UI thread, as the first maintenance of a database created before incremental vacuum was
+     * turned on rewrites the whole file.
+     *
+     * @return the {@link WeatherContract.Maintenance} results
+     */
+    private Bundle maintain(String keepLocationSetting, int retentionDays) {
+        long start = System.nanoTime();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long pagesBefore = WeatherDbHelper.queryPragma(db, "page_count");
+
+        // Through the provider, so the cached forecasts are dropped and observers notified
+        long cutoff = WeatherContract.Maintenance.getRetentionCutoff(
+                EpochDays.today(EpochDays.getDefaultZone()), retentionDays);
+        int rowsPurged = delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(cutoff)});
+
+        String orphanSelection = WeatherContract.LocationEntry._ID + " NOT IN (SELECT " +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM " +
+                WeatherContract.WeatherEntry.TABLE_NAME + ")";
+        String[] orphanArgs = null;
+        if (keepLocationSetting != null) {
+            orphanSelection += " AND " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING +
+                    " != ?";
+            orphanArgs = new String[]{keepLocationSetting};
+        }
+        ArrayList<String> removedSettings = new ArrayList<>();
+        int locationsRemoved;
+        // In one transaction, so the settings read are the ones deleted.  As a batch, so no
+        // reader resolves or caches the locations again, and no observer is woken up, before
+        // the delete has committed.
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    orphanSelection, orphanArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    removedSettings.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            locationsRemoved = delete(WeatherContract.LocationEntry.CONTENT_URI,
+                    orphanSelection, orphanArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            endBatch(db, batch);
+        }
+        notifyBatch(batch);
+
+        if (WeatherDbHelper.queryPragma(db, "auto_vacuum") != 2) {
+            // Only VACUUM can turn on incremental vacuum in an existing file.  It frees
+            // everything on the way.
+            WeatherDbHelper.pragma(db, "auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            long freePages = WeatherDbHelper.queryPragma(db, "freelist_count");
+            while (freePages > 0) {
+                WeatherDbHelper.pragma(db, "incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+                long left = WeatherDbHelper.queryPragma(db, "freelist_count");
+                if (left >= freePages) {
+                    break;
+                }
+                freePages = left;
+            }
+        }
+        db.execSQL("ANALYZE");
+
+        long pagesAfter = WeatherDbHelper.queryPragma(db, "page_count");
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.Maintenance.RESULT_ROWS_PURGED, rowsPurged);
+        result.putInt(WeatherContract.Maintenance.RESULT_LOCATIONS_REMOVED, locationsRemoved);
+        result.putStringArray(WeatherContract.Maintenance.RESULT_REMOVED_LOCATION_SETTINGS,
+                removedSettings.toArray(new String[removedSettings.size()]));
+        result.putLong(WeatherContract.Maintenance.RESULT_DATABASE_BYTES,
+                pagesAfter * WeatherDbHelper.queryPragma(db, "page_size"));
+        result.putLong(WeatherContract.Maintenance.RESULT_PAGES_RECLAIMED,
+                Math.max(0, pagesBefore - pagesAfter));
+        result.putLong(WeatherContract.Maintenance.RESULT_DURATION_MS,
+                (System.nanoTime() - start) / 1000000);
+        Log.i(LOG_TAG, "Maintenance: " + result);
+        return result;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
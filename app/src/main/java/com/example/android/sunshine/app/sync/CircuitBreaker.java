@@ -0,0 +1,81 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Stops the sync from hammering a forecast server that keeps failing.  After
+ * {@code failureThreshold} failed requests in a row the breaker opens and every request is
+ * refused without touching the network for {@code openMillis}.  After that a single trial
+ * request is let through: if it succeeds the breaker closes again, if it fails the breaker stays
+ * open for another {@code openMillis}.
+ * <p>
+ * A request counts as failed when it never got an answer or got a 5xx; anything else the server
+ * says, even a 404, means it is up.  Shared by the sync workers, so every method is thread-safe.
+ */
+class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    private int mConsecutiveFailures;
+    // When the breaker last opened, on the elapsedRealtime clock, or 0 while it is closed
+    private long mOpenedAt;
+    private boolean mTrialInFlight;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * @return true if a request may go out now.  Each true must be followed by
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    synchronized boolean allowRequest() {
+        if (mOpenedAt == 0) {
+            return true;
+        }
+        if (mTrialInFlight || SystemClock.elapsedRealtime() - mOpenedAt < mOpenMillis) {
+            return false;
+        }
+        // Half open: let one request find out whether the server is back
+        mTrialInFlight = true;
+        return true;
+    }
+
+    synchronized void recordSuccess() {
+        if (mOpenedAt != 0) {
+            Log.d(LOG_TAG, "Server is back, closing");
+        }
+        mConsecutiveFailures = 0;
+        mOpenedAt = 0;
+        mTrialInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        mConsecutiveFailures++;
+        if (mTrialInFlight || (mOpenedAt == 0 && mConsecutiveFailures >= mFailureThreshold)) {
+            Log.w(LOG_TAG, mConsecutiveFailures + " failures in a row, not asking the server for "
+                    + mOpenMillis / 1000 + " s");
+            mOpenedAt = SystemClock.elapsedRealtime();
+            mTrialInFlight = false;
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return mOpenedAt != 0;
+    }
+
+    /**
+     * @return how long until a trial request will be let through, in milliseconds; 0 if the
+     * breaker is closed or ready for the trial
+     */
+    synchronized long getRemainingOpenMillis() {
+        if (mOpenedAt == 0) {
+            return 0;
+        }
+        return Math.max(0, mOpenedAt + mOpenMillis - SystemClock.elapsedRealtime());
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the wrapped stream, so that the size of a response body is known
+ * even when it was chunked, compressed or parsed without ever being buffered.  It also adds up
+ * the time spent blocked in reads, which tells the download apart from the parsing when the two
+ * are interleaved.
+ */
+class CountingInputStream extends FilterInputStream {
+    private long mCount;
+    private long mReadNanos;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the time spent inside the wrapped stream's reads and skips, in nanoseconds
+     */
+    long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int result = super.read();
+        mReadNanos += System.nanoTime() - start;
+        if (result != -1) {
+            mCount++;
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = System.nanoTime();
+        int result = super.read(buffer, offset, count);
+        mReadNanos += System.nanoTime() - start;
+        if (result != -1) {
+            mCount += result;
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long start = System.nanoTime();
+        long result = super.skip(byteCount);
+        mReadNanos += System.nanoTime() - start;
+        mCount += result;
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
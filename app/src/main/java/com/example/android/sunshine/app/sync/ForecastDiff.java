@@ -0,0 +1,147 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a freshly parsed forecast with the rows already stored for its location, keyed on
+ * (location_id, date) like the weather table's UNIQUE constraint, and keeps only the rows that
+ * are new or differ in any value.  Writing just those through the provider's
+ * ON CONFLICT REPLACE insert turns the sync into an upsert that leaves an unchanged forecast
+ * untouched.
+ */
+class ForecastDiff {
+
+    private static final String[] STORED_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_SHORT_DESC = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_FIRST_REAL = 3;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+
+    // Rows to write, in the order they came in
+    final List<ContentValues> changedRows = new ArrayList<>();
+    int inserted;
+    int updated;
+    int unchanged;
+    // How much the stored forecast moved: the largest change of a high or low, and the number
+    // of days whose weather condition changed
+    double maxTemperatureChange;
+    int conditionChanges;
+
+    boolean hasChanges() {
+        return !changedRows.isEmpty();
+    }
+
+    /**
+     * @param locationId the location the rows belong to, or -1 for a location that is not
+     *                   stored yet
+     * @param days       the parsed rows, each with its COLUMN_LOC_KEY already set unless the
+     *                   location is new
+     */
+    static ForecastDiff compute(ContentResolver resolver, long locationId,
+                                List<ContentValues> days) {
+        ForecastDiff diff = new ForecastDiff();
+        if (days.isEmpty()) {
+            return diff;
+        }
+
+        Map<Long, ContentValues> incoming = new HashMap<>(days.size() * 2);
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues day : days) {
+            long date = day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            incoming.put(date, day);
+            firstDate = Math.min(firstDate, date);
+        }
+
+        Map<Long, Boolean> sameAsStored = new HashMap<>(days.size() * 2);
+        Cursor cursor = locationId == -1 ? null : resolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                STORED_COLUMNS,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(locationId), Long.toString(firstDate)},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(INDEX_DATE);
+                ContentValues day = incoming.get(date);
+                if (day != null) {
+                    sameAsStored.put(date, isSame(day, cursor));
+                    diff.measureChange(day, cursor);
+                }
+            }
+            cursor.close();
+        }
+
+        for (ContentValues day : days) {
+            Boolean same = sameAsStored.get(day.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            if (same == null) {
+                diff.inserted++;
+                diff.changedRows.add(day);
+            } else if (same) {
+                diff.unchanged++;
+            } else {
+                diff.updated++;
+                diff.changedRows.add(day);
+            }
+        }
+        return diff;
+    }
+
+    private void measureChange(ContentValues day, Cursor stored) {
+        Double high = day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        Double low = day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        if (high != null) {
+            maxTemperatureChange = Math.max(maxTemperatureChange,
+                    Math.abs(high - stored.getDouble(INDEX_MAX_TEMP)));
+        }
+        if (low != null) {
+            maxTemperatureChange = Math.max(maxTemperatureChange,
+                    Math.abs(low - stored.getDouble(INDEX_MIN_TEMP)));
+        }
+        Integer weatherId = day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        if (weatherId != null && weatherId != stored.getInt(INDEX_WEATHER_ID)) {
+            conditionChanges++;
+        }
+    }
+
+    private static boolean isSame(ContentValues day, Cursor stored) {
+        String shortDesc = day.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        if (shortDesc == null || !shortDesc.equals(stored.getString(INDEX_SHORT_DESC))) {
+            return false;
+        }
+        Integer weatherId = day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        if (weatherId == null || weatherId != stored.getInt(INDEX_WEATHER_ID)) {
+            return false;
+        }
+        for (int i = INDEX_FIRST_REAL; i < STORED_COLUMNS.length; i++) {
+            Double value = day.getAsDouble(STORED_COLUMNS[i]);
+            // The columns are REAL, so what went in as a double comes back out unchanged
+            if (value == null || Double.compare(value, stored.getDouble(i)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
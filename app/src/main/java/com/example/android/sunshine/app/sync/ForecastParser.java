@@ -0,0 +1,356 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.EpochDays;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Turns an OpenWeatherMap forecast/daily response into weather rows for the provider.
+ * <p>
+ * {@link #parseStream} walks the response token by token with a {@link JsonReader}, straight off
+ * the connection's input stream, and builds each day's {@link ContentValues} as soon as that day
+ * has been read.  The response is never held as a String or as a {@link JSONObject} tree.
+ * {@link #parseJson} is the original DOM path, kept for devices without JsonReader (pre
+ * Honeycomb).
+ */
+class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used by the streaming parser to check that every field the DOM parser would have
+    // required was present in a day.
+    private static final int DAY_PRESSURE = 1;
+    private static final int DAY_HUMIDITY = 1 << 1;
+    private static final int DAY_WINDSPEED = 1 << 2;
+    private static final int DAY_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_DESCRIPTION = 1 << 4;
+    private static final int DAY_WEATHER_ID = 1 << 5;
+    private static final int DAY_MAX = 1 << 6;
+    private static final int DAY_MIN = 1 << 7;
+    private static final int DAY_ALL = (1 << 8) - 1;
+
+    /**
+     * The parsed response.  The weather rows do not carry a location id yet, as that is only
+     * known once the city has been added to the database.
+     */
+    static final class Forecast {
+        int code = HttpURLConnection.HTTP_OK;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+        final List<ContentValues> days = new ArrayList<>();
+
+        boolean isOk() {
+            return code == HttpURLConnection.HTTP_OK;
+        }
+    }
+
+    private ForecastParser() {
+    }
+
+    /**
+     * Parses the complete forecast JSON string through {@link JSONObject}.
+     *
+     * @param forecastJsonStr the raw response
+     * @param startDay        the day of the first entry in the forecast list
+     */
+    static Forecast parseJson(String forecastJsonStr, int startDay) throws JSONException {
+        Forecast forecast = new Forecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.code = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (!forecast.isOk()) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        TimeZone zone = EpochDays.getDefaultZone();
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            forecast.days.add(buildWeatherValues(
+                    EpochDays.startOfDay(startDay + i, zone),
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    weatherObject.getInt(OWM_WEATHER_ID)));
+        }
+        return forecast;
+    }
+
+    /**
+     * Parses the forecast directly from the response stream.  The stream is closed when this
+     * returns.
+     * <p>
+     * Structural problems with the document are reported as {@link JSONException}, the same as
+     * {@link #parseJson}, so callers can keep treating them as an invalid server response.  An
+     * empty or truncated stream surfaces as an {@link java.io.EOFException}, which callers
+     * already treat as the server being down.
+     *
+     * @param in       the response body
+     * @param startDay the day of the first entry in the forecast list
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Forecast parseStream(InputStream in, int startDay)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            Forecast forecast = new Forecast();
+            boolean hasCity = false;
+            boolean hasList = false;
+
+            // OWM does not promise any ordering of the top level fields, so the code is only
+            // checked once the whole object has been read.
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.code = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                    hasCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader, forecast, startDay);
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!forecast.isOk()) {
+                forecast.days.clear();
+                return forecast;
+            }
+            if (!hasList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (!hasCity) {
+                throw new JSONException("No value for " + OWM_CITY);
+            }
+            return forecast;
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // JsonReader signals an unexpected token type with IllegalStateException
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Forecast forecast)
+            throws IOException, JSONException {
+        boolean hasLatitude = false;
+        boolean hasLongitude = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (forecast.cityName == null || !hasLatitude || !hasLongitude) {
+            throw new JSONException("Incomplete " + OWM_CITY);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDays(JsonReader reader, Forecast forecast, int startDay)
+            throws IOException, JSONException {
+        TimeZone zone = EpochDays.getDefaultZone();
+        int i = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            double pressure = 0;
+            int humidity = 0;
+            double windSpeed = 0;
+            double windDirection = 0;
+            double high = 0;
+            double low = 0;
+            String description = null;
+            int weatherId = 0;
+            int seen = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    pressure = reader.nextDouble();
+                    seen |= DAY_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    // JSONObject.getInt truncates fractional values, so do the same here
+                    humidity = (int) reader.nextDouble();
+                    seen |= DAY_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    windSpeed = reader.nextDouble();
+                    seen |= DAY_WINDSPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    windDirection = reader.nextDouble();
+                    seen |= DAY_WIND_DIRECTION;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String temperatureName = reader.nextName();
+                        if (OWM_MAX.equals(temperatureName)) {
+                            high = reader.nextDouble();
+                            seen |= DAY_MAX;
+                        } else if (OWM_MIN.equals(temperatureName)) {
+                            low = reader.nextDouble();
+                            seen |= DAY_MIN;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    // Only the first element of the "weather" array is used
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String weatherName = reader.nextName();
+                            if (OWM_DESCRIPTION.equals(weatherName)) {
+                                description = reader.nextString();
+                                seen |= DAY_DESCRIPTION;
+                            } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                                weatherId = reader.nextInt();
+                                seen |= DAY_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (seen != DAY_ALL) {
+                throw new JSONException("Incomplete forecast for day " + i);
+            }
+
+            forecast.days.add(buildWeatherValues(
+                    EpochDays.startOfDay(startDay + i, zone),
+                    pressure, humidity, windSpeed, windDirection, high, low,
+                    description, weatherId));
+            i++;
+        }
+        reader.endArray();
+    }
+
+    private static ContentValues buildWeatherValues(long dateTime, double pressure, int humidity,
+                                                    double windSpeed, double windDirection,
+                                                    double high, double low,
+                                                    String description, int weatherId) {
+        ContentValues weatherValues = new ContentValues();
+
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        return weatherValues;
+    }
+}
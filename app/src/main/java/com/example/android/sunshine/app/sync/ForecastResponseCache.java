@@ -0,0 +1,292 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+/**
+ * Remembers the HTTP validators (ETag, Last-Modified) and the freshness lifetime
+ * (Cache-Control max-age, Expires) of the last full forecast response for each location query,
+ * so a sync can send a conditional GET and skip parsing and storing a forecast we already have.
+ * <p>
+ * Only the metadata is kept.  The forecast body itself already lives in the weather database, so
+ * a 304 or a still fresh entry simply means there is nothing to do.  Entries are kept in their
+ * own SharedPreferences file, which also holds the hit and byte counters.
+ * <p>
+ * Entries are built from a connection with {@link #fromResponse} or {@link #fromNotModified},
+ * which is safe on any thread, and recorded once the sync knows whether the forecast was stored.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String PREFS_NAME = "forecast_response_cache";
+
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+    private static final String KEY_EXPIRES = "expires:";
+    private static final String KEY_BODY_BYTES = "body_bytes:";
+
+    private static final String STAT_REQUESTS = "stat_requests";
+    private static final String STAT_NOT_MODIFIED = "stat_not_modified";
+    private static final String STAT_FRESH = "stat_fresh";
+    private static final String STAT_BYTES_RECEIVED = "stat_bytes_received";
+    private static final String STAT_BYTES_SAVED = "stat_bytes_saved";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * What we know about the last full response for one location query.
+     */
+    static final class Entry {
+        final String etag;
+        final long lastModified;
+        final long expires;
+        final long bodyBytes;
+
+        Entry(String etag, long lastModified, long expires, long bodyBytes) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            this.bodyBytes = bodyBytes;
+        }
+
+        boolean isFresh(long now) {
+            return now < expires;
+        }
+
+        boolean hasValidators() {
+            return etag != null || lastModified > 0;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    ForecastResponseCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the cached entry for the location query, or null if there is none.
+     */
+    Entry get(String locationQuery) {
+        if (!mPrefs.contains(KEY_BODY_BYTES + locationQuery)) {
+            return null;
+        }
+        return new Entry(mPrefs.getString(KEY_ETAG + locationQuery, null),
+                mPrefs.getLong(KEY_LAST_MODIFIED + locationQuery, 0),
+                mPrefs.getLong(KEY_EXPIRES + locationQuery, 0),
+                mPrefs.getLong(KEY_BODY_BYTES + locationQuery, 0));
+    }
+
+    synchronized void remove(String locationQuery) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        removeEntry(editor, locationQuery);
+        editor.apply();
+    }
+
+    /**
+     * Turns the request into a conditional GET if we hold validators for it.  Must be called
+     * before the connection is connected.
+     */
+    static void addValidators(HttpURLConnection urlConnection, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        if (entry.etag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, entry.etag);
+        }
+        if (entry.lastModified > 0) {
+            urlConnection.setIfModifiedSince(entry.lastModified);
+        }
+    }
+
+    /**
+     * Builds the entry describing a full response.
+     *
+     * @param bodyBytes the number of bytes read from the response body
+     * @return the entry, or null if the server asked for the response not to be stored
+     */
+    static Entry fromResponse(HttpURLConnection urlConnection, long bodyBytes) {
+        String cacheControl = urlConnection.getHeaderField(HEADER_CACHE_CONTROL);
+        if (hasDirective(cacheControl, "no-store")) {
+            return null;
+        }
+        return new Entry(urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getLastModified(),
+                computeExpires(urlConnection, cacheControl),
+                bodyBytes);
+    }
+
+    /**
+     * Builds the entry for a 304 response.  The server may send fresh caching headers with it,
+     * so the freshness lifetime is updated while the validators and the body size are kept.
+     */
+    static Entry fromNotModified(HttpURLConnection urlConnection, Entry entry) {
+        String cacheControl = urlConnection.getHeaderField(HEADER_CACHE_CONTROL);
+        String etag = urlConnection.getHeaderField(HEADER_ETAG);
+        return new Entry(etag != null ? etag : entry.etag,
+                entry.lastModified,
+                computeExpires(urlConnection, cacheControl),
+                entry.bodyBytes);
+    }
+
+    /**
+     * Records a full response that was parsed and stored successfully.
+     *
+     * @param entry     the entry built by {@link #fromResponse}, null to drop the location
+     * @param bodyBytes the number of bytes read from the response body
+     */
+    synchronized void put(String locationQuery, Entry entry, long bodyBytes) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        incrementRequests(editor);
+        editor.putLong(STAT_BYTES_RECEIVED, mPrefs.getLong(STAT_BYTES_RECEIVED, 0) + bodyBytes);
+        if (entry == null) {
+            removeEntry(editor, locationQuery);
+        } else {
+            putEntry(editor, locationQuery, entry);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Records a 304 response.
+     *
+     * @param entry the entry built by {@link #fromNotModified}
+     */
+    synchronized void putNotModified(String locationQuery, Entry entry) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        incrementRequests(editor);
+        editor.putLong(STAT_NOT_MODIFIED, mPrefs.getLong(STAT_NOT_MODIFIED, 0) + 1)
+                .putLong(STAT_BYTES_SAVED, mPrefs.getLong(STAT_BYTES_SAVED, 0) + entry.bodyBytes);
+        putEntry(editor, locationQuery, entry);
+        editor.apply();
+    }
+
+    /**
+     * Records a sync that was answered from a fresh entry without going to the network.
+     */
+    synchronized void recordFreshHit(Entry entry) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        incrementRequests(editor);
+        editor.putLong(STAT_FRESH, mPrefs.getLong(STAT_FRESH, 0) + 1)
+                .putLong(STAT_BYTES_SAVED, mPrefs.getLong(STAT_BYTES_SAVED, 0) + entry.bodyBytes)
+                .apply();
+    }
+
+    /**
+     * Records a request that did not produce a usable response, so the hit ratio reflects
+     * every fetch we attempted.
+     */
+    synchronized void recordMiss() {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        incrementRequests(editor);
+        editor.apply();
+    }
+
+    synchronized long getRequestCount() {
+        return mPrefs.getLong(STAT_REQUESTS, 0);
+    }
+
+    synchronized long getHitCount() {
+        return mPrefs.getLong(STAT_NOT_MODIFIED, 0) + mPrefs.getLong(STAT_FRESH, 0);
+    }
+
+    /**
+     * @return the share of forecast requests answered by a 304 or a fresh entry, in [0, 1].
+     */
+    synchronized float getHitRatio() {
+        long requests = getRequestCount();
+        return requests == 0 ? 0f : (float) getHitCount() / requests;
+    }
+
+    synchronized long getBytesReceived() {
+        return mPrefs.getLong(STAT_BYTES_RECEIVED, 0);
+    }
+
+    synchronized long getBytesSaved() {
+        return mPrefs.getLong(STAT_BYTES_SAVED, 0);
+    }
+
+    synchronized void logStats() {
+        Log.d(LOG_TAG, String.format(Locale.US,
+                "Forecast cache: %d/%d hits (%.0f%%), %d bytes received, %d bytes saved",
+                getHitCount(), getRequestCount(), getHitRatio() * 100,
+                getBytesReceived(), getBytesSaved()));
+    }
+
+    private static void putEntry(SharedPreferences.Editor editor, String locationQuery,
+                                 Entry entry) {
+        editor.putString(KEY_ETAG + locationQuery, entry.etag)
+                .putLong(KEY_LAST_MODIFIED + locationQuery, entry.lastModified)
+                .putLong(KEY_EXPIRES + locationQuery, entry.expires)
+                .putLong(KEY_BODY_BYTES + locationQuery, entry.bodyBytes);
+    }
+
+    private static void removeEntry(SharedPreferences.Editor editor, String locationQuery) {
+        editor.remove(KEY_ETAG + locationQuery)
+                .remove(KEY_LAST_MODIFIED + locationQuery)
+                .remove(KEY_EXPIRES + locationQuery)
+                .remove(KEY_BODY_BYTES + locationQuery);
+    }
+
+    private void incrementRequests(SharedPreferences.Editor editor) {
+        editor.putLong(STAT_REQUESTS, mPrefs.getLong(STAT_REQUESTS, 0) + 1);
+    }
+
+    /**
+     * Works out until when a response may be used without asking the server again.  A
+     * Cache-Control max-age wins over Expires; without either the response has to be revalidated
+     * every time.
+     */
+    static long computeExpires(HttpURLConnection urlConnection, String cacheControl) {
+        long now = System.currentTimeMillis();
+        if (hasDirective(cacheControl, "no-cache") || hasDirective(cacheControl, "no-store")) {
+            return 0;
+        }
+        long maxAgeSeconds = getMaxAgeSeconds(cacheControl);
+        if (maxAgeSeconds >= 0) {
+            return now + maxAgeSeconds * 1000;
+        }
+        long expires = urlConnection.getExpiration();
+        if (expires > 0) {
+            // Expires is relative to the server's clock, so apply it against the server's Date
+            long date = urlConnection.getDate();
+            return date > 0 ? now + (expires - date) : expires;
+        }
+        return 0;
+    }
+
+    static long getMaxAgeSeconds(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.regionMatches(true, 0, "max-age=", 0, 8)) {
+                try {
+                    return Long.parseLong(directive.substring(8).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasDirective(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return false;
+        }
+        for (String part : cacheControl.split(",")) {
+            if (part.trim().equalsIgnoreCase(directive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
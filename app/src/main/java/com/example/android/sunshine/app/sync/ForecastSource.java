@@ -0,0 +1,68 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the sync adapter gets its daily forecasts from.  {@link OwmForecastSource} talks to
+ * OpenWeatherMap; tests can plug in a source that serves recorded payloads without a network.
+ * <p>
+ * Implementations must be safe to use from several sync worker threads at once.
+ */
+interface ForecastSource {
+
+    /**
+     * Prepares the request for the daily forecast of one location.  Nothing is sent until the
+     * response code is asked for, so the request can be cancelled from another thread as soon
+     * as this returns.
+     *
+     * @param locationQuery  the location setting, as the user typed it
+     * @param numDays        how many days of forecast to ask for
+     * @param cachedResponse what we know about the last response for the location, used to
+     *                       make the request conditional; may be null
+     */
+    Response open(String locationQuery, int numDays, ForecastResponseCache.Entry cachedResponse)
+            throws IOException;
+
+    /**
+     * One response from a forecast source.  Must be closed once the body has been read.
+     */
+    interface Response {
+        /**
+         * Opens the connection to the server without sending the request, so that the time it
+         * takes to connect can be told apart from the time the server takes to answer.  Does
+         * nothing if the connection is already open.
+         */
+        void connect() throws IOException;
+
+        /**
+         * Sends the request if it hasn't been sent yet, and waits for the status line.
+         *
+         * @return an HTTP status code; {@link java.net.HttpURLConnection#HTTP_NOT_MODIFIED}
+         * means the cached response is still current
+         */
+        int getResponseCode() throws IOException;
+
+        /**
+         * @return the OWM daily forecast JSON, possibly carrying an error "cod" of its own
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * @param bodyBytes the number of bytes read from the body
+         * @return the response cache entry for this response, or null if it must not be kept
+         */
+        ForecastResponseCache.Entry toCacheEntry(long bodyBytes);
+
+        /**
+         * @return the response cache entry after this response confirmed the cached one
+         */
+        ForecastResponseCache.Entry toNotModifiedEntry(ForecastResponseCache.Entry cachedResponse);
+
+        /**
+         * Releases the response.  May be called from another thread to abort a blocked read,
+         * and more than once.
+         */
+        void close();
+    }
+}
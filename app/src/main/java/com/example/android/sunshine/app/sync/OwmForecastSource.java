@@ -0,0 +1,108 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches daily forecasts from the OpenWeatherMap API over HTTP, or from any server speaking
+ * the same API at another base URL.
+ */
+class OwmForecastSource implements ForecastSource {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private final String mBaseUrl;
+    private final int mTimeoutMillis;
+
+    OwmForecastSource(int timeoutMillis) {
+        this(FORECAST_BASE_URL, timeoutMillis);
+    }
+
+    /**
+     * @param baseUrl       the forecast/daily endpoint, ending in '?'
+     * @param timeoutMillis the connect and read timeout of every request
+     */
+    OwmForecastSource(String baseUrl, int timeoutMillis) {
+        mBaseUrl = baseUrl;
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Response open(String locationQuery, int numDays,
+                         ForecastResponseCache.Entry cachedResponse) throws IOException {
+        // Construct the URL for the OpenWeatherMap query
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        URL url = new URL(builtUri.toString());
+
+        // Create the request to OpenWeatherMap.  It is sent by the first getResponseCode()
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(mTimeoutMillis);
+        urlConnection.setReadTimeout(mTimeoutMillis);
+        urlConnection.setRequestMethod("GET");
+        ForecastResponseCache.addValidators(urlConnection, cachedResponse);
+        return new HttpResponse(urlConnection);
+    }
+
+    private static class HttpResponse implements Response {
+        private final HttpURLConnection mConnection;
+
+        HttpResponse(HttpURLConnection urlConnection) {
+            mConnection = urlConnection;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            mConnection.connect();
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return mConnection.getInputStream();
+        }
+
+        @Override
+        public ForecastResponseCache.Entry toCacheEntry(long bodyBytes) {
+            return ForecastResponseCache.fromResponse(mConnection, bodyBytes);
+        }
+
+        @Override
+        public ForecastResponseCache.Entry toNotModifiedEntry(
+                ForecastResponseCache.Entry cachedResponse) {
+            return ForecastResponseCache.fromNotModified(mConnection, cachedResponse);
+        }
+
+        @Override
+        public void close() {
+            mConnection.disconnect();
+        }
+    }
+}
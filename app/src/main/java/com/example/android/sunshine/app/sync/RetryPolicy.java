@@ -0,0 +1,42 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * How often and how long apart a failed forecast request is tried again within one sync.  The
+ * delay doubles with every retry up to a cap, and half of it is random so that the workers, and
+ * every phone that lost the network at the same time, don't all come back at once.
+ */
+class RetryPolicy {
+    final int maxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom = new Random();
+
+    /**
+     * @param maxAttempts     how many requests to make in total, the first one included
+     * @param baseDelayMillis the delay before the first retry, before jitter
+     * @param maxDelayMillis  the longest delay, before jitter
+     */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @param retry 1 for the first retry, 2 for the second and so on
+     * @return how long to wait before that retry, in milliseconds
+     */
+    long getDelayMillis(int retry) {
+        long delay = mBaseDelayMillis;
+        for (int i = 1; i < retry && delay < mMaxDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxDelayMillis);
+        long half = delay / 2;
+        synchronized (mRandom) {
+            return half + (long) (mRandom.nextDouble() * (delay - half));
+        }
+    }
+}
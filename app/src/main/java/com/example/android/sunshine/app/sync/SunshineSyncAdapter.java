@@ -3,25 +3,33 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
 import android.content.AbstractThreadedSyncAdapter;
+import android.content.ComponentName;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.Contacts;
 import android.support.annotation.IntDef;
@@ -29,29 +37,30 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSettings;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.EpochDays;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
 import com.example.android.sunshine.app.widget.DetailWidgetRemoteViewsService;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
@@ -61,9 +70,19 @@ import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -74,8 +93,42 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // How often the database is purged and shrunk
+    private static final long MAINTENANCE_INTERVAL = DAY_IN_MILLIS;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    /**
+     * Sync extra naming the locations to sync, separated by newlines.  Without it the preferred
+     * location is synced, along with every stored location if the user asked for that.
+     */
+    public static final String SYNC_EXTRAS_LOCATIONS =
+            "com.example.android.sunshine.app.sync.extra.LOCATIONS";
+    // How many forecasts are downloaded at once when several locations are synced
+    static final int MAX_SYNC_THREADS = 4;
+    // How long a single location may take, from connecting to the last byte parsed
+    static final int LOCATION_TIMEOUT_MS = 30 * 1000;
+    // The consumers told about a new forecast, and how long each of them may take
+    static final String CONSUMER_WIDGETS = "widgets";
+    static final String CONSUMER_MUZEI = "muzei";
+    static final String CONSUMER_NOTIFICATION = "notification";
+    static final String CONSUMER_WEARABLE = "wearable";
+    private static final long BROADCAST_TIMEOUT_MS = 5 * 1000;
+    private static final long NOTIFICATION_TIMEOUT_MS = 20 * 1000;
+    private static final long WEARABLE_PUT_TIMEOUT_MS = 10 * 1000;
+    // The notification falls back to the bundled art if the art pack takes longer than this
+    private static final long ART_TIMEOUT_MS = 10 * 1000;
+    // How long to wait for the wearable API when checking for a connected watch
+    private static final long WEARABLE_TIMEOUT_MS = 2 * 1000;
+    // How many days of forecast to ask for
+    static final int FORECAST_DAYS = 14;
+    // How often a location is tried within one sync, and the backoff between the tries
+    static final int MAX_FETCH_ATTEMPTS = 3;
+    private static final long RETRY_BASE_DELAY_MS = 1000;
+    private static final long RETRY_MAX_DELAY_MS = 8 * 1000;
+    // After this many failed requests in a row the server is left alone for a while
+    static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MS = 15 * 60 * 1000;
+
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -102,9 +155,33 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int LOCATION_STATUS_INVALID = 4;
 
     private final GoogleApiClient mGoogleApiClient;
+    private final ForecastResponseCache mResponseCache;
+    private final SyncScheduler mScheduler;
+    private final SyncFanOut mFanOut = new SyncFanOut();
+    private ForecastSource mForecastSource = new OwmForecastSource(LOCATION_TIMEOUT_MS);
+    private int mMaxSyncThreads = MAX_SYNC_THREADS;
+    private RetryPolicy mRetryPolicy =
+            new RetryPolicy(MAX_FETCH_ATTEMPTS, RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS);
+    // Lives as long as the adapter, so a server that is down stays skipped across syncs
+    private CircuitBreaker mCircuitBreaker =
+            new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MS);
+    // The stats of the last sync that started the fan-out, which its consumers report to
+    private volatile SyncStats mFanOutStats;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mResponseCache = new ForecastResponseCache(context);
+        mScheduler = new SyncScheduler(context);
+        mFanOut.setListener(new SyncFanOut.Listener() {
+            @Override
+            public void onConsumerFinished(String name, long latencyMillis, boolean timedOut,
+                                           Throwable error) {
+                SyncStats stats = mFanOutStats;
+                if (stats != null) {
+                    stats.onConsumerFinished(getContext().getContentResolver(), latencyMillis);
+                }
+            }
+        });
 
         mGoogleApiClient = new GoogleApiClient.Builder(context)
                 .addApi(Wearable.API)
@@ -114,272 +191,636 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         mGoogleApiClient.connect();
     }
 
-    @Override
-    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+    /**
+     * Replaces the OpenWeatherMap source, e.g. with a stub serving recorded payloads.
+     */
+    void setForecastSource(ForecastSource forecastSource) {
+        mForecastSource = forecastSource;
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    void setMaxSyncThreads(int maxSyncThreads) {
+        mMaxSyncThreads = maxSyncThreads;
+    }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+    void setRetryPolicy(RetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        mCircuitBreaker = circuitBreaker;
+    }
 
+    @Override
+    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        Log.d(LOG_TAG, "Starting sync");
+        // A manual sync always asks the server, but still lets it answer with a 304
+        boolean manualSync = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        syncLocations(getLocationsToSync(extras), manualSync, syncResult);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            maintainDatabaseIfDue();
+        }
+    }
+
+    /**
+     * Once a day, after a sync, has the provider purge old forecasts and the locations that are
+     * no longer synced, and shrink the database.  The sync thread is a background thread the
+     * system already schedules, and readers aren't blocked while the maintenance runs.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void maintainDatabaseIfDue() {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastMaintenanceKey = context.getString(R.string.pref_last_maintenance);
+        long now = System.currentTimeMillis();
+        if (now - prefs.getLong(lastMaintenanceKey, 0) < MAINTENANCE_INTERVAL) {
+            return;
+        }
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            // The preferred location stays even before its first forecast arrives
+            Bundle result = context.getContentResolver().call(
+                    WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.Maintenance.METHOD_MAINTAIN,
+                    Utility.getPreferredLocation(context),
+                    null);
+            Log.d(LOG_TAG, "Database maintained: " + result);
+            if (result != null) {
+                removeLocationStatuses(context, result.getStringArray(
+                        WeatherContract.Maintenance.RESULT_REMOVED_LOCATION_SETTINGS));
             }
+        } catch (SQLException e) {
+            // Probably out of space for the VACUUM.  Try again tomorrow.
+            Log.e(LOG_TAG, "Database maintenance failed", e);
+        }
+        prefs.edit().putLong(lastMaintenanceKey, now).apply();
+    }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+    /**
+     * @return the locations named in the sync extras, or the preferred location followed by
+     * every other stored location if the user asked for all of them to be kept up to date.
+     */
+    private List<String> getLocationsToSync(Bundle extras) {
+        Set<String> locations = new LinkedHashSet<>();
+        String requested = extras.getString(SYNC_EXTRAS_LOCATIONS);
+        if (requested != null) {
+            for (String location : requested.split("\n")) {
+                if (location.length() > 0) {
+                    locations.add(location);
+                }
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+            return new ArrayList<>(locations);
+        }
+
+        Context context = getContext();
+        locations.add(Utility.getPreferredLocation(context));
+        if (Utility.isSyncAllLocations(context)) {
+            Cursor cursor = context.getContentResolver().query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    null,
+                    null,
+                    null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    locations.add(cursor.getString(0));
                 }
+                cursor.close();
             }
         }
-        return;
+        return new ArrayList<>(locations);
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Syncs the forecast of every given location.  The forecasts are downloaded and parsed on up
+     * to {@link #MAX_SYNC_THREADS} worker threads, each with its own deadline, and then stored
+     * together on the calling thread so the database, the widgets and everything else that
+     * watches the weather hear about the sync once.  How long each phase took ends up in the
+     * sync stats history.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+    void syncLocations(List<String> locations, boolean manualSync, SyncResult syncResult) {
+        SyncStats stats = new SyncStats();
+        stats.locations = locations.size();
+        int startDay = getStartDay();
+        List<FetchResult> results = new ArrayList<>(locations.size());
+        long fetchStart = System.nanoTime();
+
+        if (locations.size() == 1) {
+            // No point in starting a pool for a single location
+            results.add(new LocationFetch(locations.get(0), manualSync, startDay).call());
+        } else if (!locations.isEmpty()) {
+            ExecutorService executor =
+                    Executors.newFixedThreadPool(Math.min(mMaxSyncThreads, locations.size()));
+            try {
+                List<LocationFetch> fetches = new ArrayList<>(locations.size());
+                List<Future<FetchResult>> futures = new ArrayList<>(locations.size());
+                for (String location : locations) {
+                    LocationFetch fetch = new LocationFetch(location, manualSync, startDay);
+                    fetches.add(fetch);
+                    futures.add(executor.submit(fetch));
+                }
+                for (int i = 0; i < fetches.size(); i++) {
+                    results.add(awaitFetch(fetches.get(i), futures.get(i)));
                 }
+            } catch (InterruptedException e) {
+                // The sync was cancelled.  Whatever finished is still worth storing.
+                Log.d(LOG_TAG, "Sync interrupted after " + results.size() + " locations");
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdownNow();
             }
+        }
+        stats.fetchNanos = System.nanoTime() - fetchStart;
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+        commitForecasts(results, startDay, syncResult, stats);
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    /**
+     * Waits for one location until it has been running for {@link #LOCATION_TIMEOUT_MS}.  The
+     * deadline starts when a worker picks the location up, not when it was queued, so locations
+     * waiting behind slow ones are not timed out for nothing.
+     */
+    private FetchResult awaitFetch(LocationFetch fetch, Future<FetchResult> future)
+            throws InterruptedException {
+        while (true) {
+            long startedAt = fetch.mStartedAt;
+            long waitMillis = startedAt == 0 ? LOCATION_TIMEOUT_MS
+                    : startedAt + LOCATION_TIMEOUT_MS - SystemClock.elapsedRealtime();
+            try {
+                return future.get(Math.max(waitMillis, 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                startedAt = fetch.mStartedAt;
+                if (startedAt != 0
+                        && SystemClock.elapsedRealtime() - startedAt >= LOCATION_TIMEOUT_MS) {
+                    Log.w(LOG_TAG, "Timed out syncing " + fetch.mLocationQuery);
+                    fetch.cancel();
+                    future.cancel(true);
+                    return new FetchResult(fetch.mLocationQuery, LOCATION_STATUS_SERVER_DOWN);
+                }
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error syncing " + fetch.mLocationQuery, e.getCause());
+                return new FetchResult(fetch.mLocationQuery, LOCATION_STATUS_SERVER_DOWN);
+            }
+        }
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    /**
+     * What one worker found out about one location.  Nothing in here has been written anywhere
+     * yet, {@link #commitForecasts} takes care of that on the sync thread.
+     */
+    static final class FetchResult {
+        final String locationQuery;
+        @LocationStatus int status;
+        // The forecast to store, or null if there is nothing new to store
+        ForecastParser.Forecast forecast;
+        // The response cache entry the location had when the sync started
+        ForecastResponseCache.Entry cachedResponse;
+        // The response cache entry to keep once the forecast is stored
+        ForecastResponseCache.Entry response;
+        boolean fresh;
+        boolean notModified;
+        boolean parseError;
+        // Set if the circuit breaker kept the request from going out
+        boolean circuitOpen;
+        int retries;
+        // The size of the stored response's body
+        long bodyBytes;
+        // Everything read from response bodies, failed attempts included
+        long bytesReceived;
+        // How long each phase of the download took over all attempts, in nanoseconds
+        long connectNanos;
+        long firstByteNanos;
+        long downloadNanos;
+        long parseNanos;
+
+        FetchResult(String locationQuery, @LocationStatus int status) {
+            this.locationQuery = locationQuery;
+            this.status = status;
+        }
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    /**
+     * Downloads and parses the forecast of one location.  Requests that fail for a reason that
+     * may go away are retried with backoff, within the location's deadline and as long as the
+     * circuit breaker lets them through.  Runs on a worker thread, so it only reads the database
+     * and leaves every write to {@link #commitForecasts}.
+     */
+    private class LocationFetch implements Callable<FetchResult> {
+        final String mLocationQuery;
+        private final boolean mManualSync;
+        private final int mStartDay;
+        volatile long mStartedAt;
+        private volatile ForecastSource.Response mResponse;
+        private volatile boolean mCancelled;
+
+        LocationFetch(String locationQuery, boolean manualSync, int startDay) {
+            mLocationQuery = locationQuery;
+            mManualSync = manualSync;
+            mStartDay = startDay;
+        }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        /**
+         * Drops the connection, which unblocks a worker stuck in a read that ignores interrupts.
+         */
+        void cancel() {
+            mCancelled = true;
+            ForecastSource.Response response = mResponse;
+            if (response != null) {
+                response.close();
+            }
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+        @Override
+        public FetchResult call() {
+            mStartedAt = SystemClock.elapsedRealtime();
+            FetchResult result = new FetchResult(mLocationQuery, LOCATION_STATUS_UNKNOWN);
 
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+            ForecastResponseCache.Entry cachedResponse = mResponseCache.get(mLocationQuery);
+            if (cachedResponse != null && !hasStoredForecast(mLocationQuery)) {
+                // The stored forecast is gone (e.g. the database was recreated), so a 304 would
+                // leave us with nothing to show.  Fetch the full response instead.
+                cachedResponse = null;
+            }
+            result.cachedResponse = cachedResponse;
+            if (cachedResponse != null && !mManualSync
+                    && cachedResponse.isFresh(System.currentTimeMillis())) {
+                result.fresh = true;
+                result.status = LOCATION_STATUS_OK;
+                return result;
+            }
 
-                double high;
-                double low;
+            for (int attempt = 1; ; attempt++) {
+                if (!mCircuitBreaker.allowRequest()) {
+                    Log.w(LOG_TAG, "Server keeps failing, not fetching " + mLocationQuery);
+                    result.circuitOpen = true;
+                    result.status = LOCATION_STATUS_SERVER_DOWN;
+                    return result;
+                }
+                boolean failed = true;
+                try {
+                    failed = fetch(result, cachedResponse);
+                } finally {
+                    // Even if the fetch blew up, so a trial request can't keep the breaker open
+                    if (failed) {
+                        mCircuitBreaker.recordFailure();
+                    } else {
+                        mCircuitBreaker.recordSuccess();
+                    }
+                }
+                if (!failed) {
+                    return result;
+                }
 
-                String description;
-                int weatherId;
+                if (attempt >= mRetryPolicy.maxAttempts || mCancelled) {
+                    return result;
+                }
+                long delayMillis = mRetryPolicy.getDelayMillis(attempt);
+                if (SystemClock.elapsedRealtime() + delayMillis - mStartedAt
+                        >= LOCATION_TIMEOUT_MS) {
+                    // The retry would not get to finish anyway
+                    return result;
+                }
+                Log.d(LOG_TAG, "Retrying " + mLocationQuery + " in " + delayMillis + " ms");
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return result;
+                }
+                result.retries++;
+            }
+        }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        /**
+         * Makes one request for the forecast and reads it into the result.
+         *
+         * @return true if the request failed in a way worth retrying: the server could not be
+         * reached, the connection dropped, even while the body was being read, or the server
+         * answered with a 5xx
+         */
+        private boolean fetch(FetchResult result, ForecastResponseCache.Entry cachedResponse) {
+            // These need to be declared outside the try/catch
+            // so that they can be closed in the finally block.
+            ForecastSource.Response response = null;
+            BufferedReader reader = null;
+            CountingInputStream inputStream = null;
+            int responseCode = -1;
+
+            try {
+                response = mForecastSource.open(mLocationQuery, FORECAST_DAYS, cachedResponse);
+                mResponse = response;
+                long phaseStart = System.nanoTime();
+                response.connect();
+                result.connectNanos += System.nanoTime() - phaseStart;
+                phaseStart = System.nanoTime();
+                responseCode = response.getResponseCode();
+                result.firstByteNanos += System.nanoTime() - phaseStart;
+
+                if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    Log.w(LOG_TAG, "Server answered " + responseCode + " for " + mLocationQuery);
+                    result.status = LOCATION_STATUS_SERVER_DOWN;
+                    return true;
+                }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+                if (cachedResponse != null
+                        && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    // Nothing new on the server: no parsing and nothing to store.
+                    result.notModified = true;
+                    result.response = response.toNotModifiedEntry(cachedResponse);
+                    result.status = LOCATION_STATUS_OK;
+                    return false;
+                }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+                InputStream rawInputStream = response.getBody();
+                if (rawInputStream == null) {
+                    result.status = LOCATION_STATUS_SERVER_DOWN;
+                    return false;
+                }
+                inputStream = new CountingInputStream(rawInputStream);
+                long bodyStart = System.nanoTime();
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    // Parse the forecast straight off the wire, without ever holding the
+                    // response as a String.  An empty stream ends up as an EOFException, which
+                    // is handled below like any other IOException.
+                    result.forecast = ForecastParser.parseStream(inputStream, mStartDay);
+                } else {
+                    // Read the input stream into a String
+                    StringBuilder buffer = new StringBuilder();
+                    reader = new BufferedReader(new InputStreamReader(inputStream));
+
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        // Since it's JSON, adding a newline isn't necessary (it won't affect
+                        // parsing) But it does make debugging a *lot* easier if you print out
+                        // the completed buffer for debugging.
+                        buffer.append(line).append('\n');
+                    }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+                    if (buffer.length() == 0) {
+                        // Stream was empty.  No point in parsing.
+                        result.status = LOCATION_STATUS_SERVER_DOWN;
+                        return false;
+                    }
+                    result.forecast = ForecastParser.parseJson(buffer.toString(), mStartDay);
+                }
+                // The parser pulls the body off the wire as it goes, so whatever time was not
+                // spent waiting for bytes was spent parsing them
+                result.downloadNanos += inputStream.getReadNanos();
+                result.parseNanos += System.nanoTime() - bodyStart - inputStream.getReadNanos();
+                result.bodyBytes = inputStream.getCount();
+                result.response = response.toCacheEntry(result.bodyBytes);
+                // commitForecasts sets the status once the forecast is stored
+                result.status = LOCATION_STATUS_UNKNOWN;
+                return false;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error syncing " + mLocationQuery, e);
+                // If the code didn't successfully get the weather data, there's no point in
+                // attempting to parse it.
+                result.status = LOCATION_STATUS_SERVER_DOWN;
+                // An error status the server did answer with (e.g. a 404) won't go away, but a
+                // connection that dropped, before the status line or in the middle of the
+                // body, may come back
+                return responseCode < HttpURLConnection.HTTP_BAD_REQUEST;
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+                result.parseError = true;
+                result.status = LOCATION_STATUS_SERVER_INVALID;
+                return false;
+            } finally {
+                mResponse = null;
+                if (inputStream != null) {
+                    // Also count what was read by a failed attempt
+                    result.bytesReceived += inputStream.getCount();
+                }
+                if (response != null) {
+                    response.close();
+                }
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (final IOException e) {
+                        Log.e(LOG_TAG, "Error closing stream", e);
+                    }
+                }
+            }
+        }
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * OWM returns daily forecasts based upon the local time of the city that is being
+     * asked for, which means that we need to know the GMT offset to translate this data
+     * properly.
+     * <p>
+     * Since this data is also sent in-order and the first day is always the
+     * current day, we're going to take advantage of that to get a nice
+     * normalized UTC date for all of our weather.
+     *
+     * @return the day of the first entry in the forecast list, as counted by {@link EpochDays}
+     */
+    static int getStartDay() {
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return EpochDays.today(EpochDays.getDefaultZone());
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Stores everything the workers fetched.  Each forecast is compared with what is already
+     * stored for its location, and only new or changed days are written.  The new locations,
+     * those days and the purge of the days gone by go to the provider as
+     * one batch, so they are applied in one transaction and observers are notified once.  If
+     * the preferred location changed, the widgets, Muzei, the notification and the wearable are
+     * then updated once.  The location statuses and the response cache are written afterwards,
+     * so they never claim more than what made it into the database.  Last, the stats of the
+     * whole sync are stored.
+     */
+    private void commitForecasts(List<FetchResult> results, int startDay,
+                                 SyncResult syncResult, SyncStats stats) {
+        Context context = getContext();
+        String preferredLocation = Utility.getPreferredLocation(context);
+        boolean preferredChanged = false;
+        // What the scheduler gets to see of the preferred location's forecast
+        boolean preferredObserved = false;
+        ForecastDiff preferredDiff = null;
+        boolean anyStored = false;
+        int inserted = 0;
+        int updated = 0;
+        int unchanged = 0;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        List<FetchResult> stored = new ArrayList<>();
+
+        for (FetchResult result : results) {
+            stats.addFetch(result);
+            ForecastParser.Forecast forecast = result.forecast;
+            if (result.notModified && result.locationQuery.equals(preferredLocation)) {
+                preferredObserved = true;
+            }
+            if (forecast == null) {
+                continue;
+            }
+            switch (forecast.code) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.status = LOCATION_STATUS_INVALID;
+                    continue;
+                default:
+                    result.status = LOCATION_STATUS_SERVER_DOWN;
+                    continue;
+            }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            long phaseStart = System.nanoTime();
+            long locationId = addLocation(operations, result.locationQuery, forecast.cityName,
+                    forecast.cityLatitude, forecast.cityLongitude);
+            // The index of the operation that inserts a new location
+            int locationInsert = operations.size() - 1;
+            stats.locationLookupNanos += System.nanoTime() - phaseStart;
+            if (locationId != -1) {
+                for (ContentValues weatherValues : forecast.days) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+            }
+            phaseStart = System.nanoTime();
+            ForecastDiff diff = ForecastDiff.compute(context.getContentResolver(), locationId,
+                    forecast.days);
+            stats.diffNanos += System.nanoTime() - phaseStart;
+            // Changed days replace the stored ones through the table's ON CONFLICT REPLACE
+            for (ContentValues weatherValues : diff.changedRows) {
+                ContentProviderOperation.Builder insert = ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues);
+                if (locationId == -1) {
+                    insert.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                            locationInsert);
+                }
+                operations.add(insert.build());
+            }
+            stored.add(result);
+            inserted += diff.inserted;
+            updated += diff.updated;
+            unchanged += diff.unchanged;
+
+            result.status = LOCATION_STATUS_OK;
+            anyStored = true;
+            if (result.locationQuery.equals(preferredLocation)) {
+                preferredObserved = true;
+                preferredDiff = diff;
+                preferredChanged = diff.hasChanges();
+            }
+        }
 
-                cVVector.add(weatherValues);
+        if (anyStored) {
+            // delete old data so we don't build up an endless history.  The same window as the
+            // daily maintenance, so the two agree on what is kept.  The provider only notifies
+            // observers if something was actually deleted.
+            long cutoff = WeatherContract.Maintenance.getRetentionCutoff(startDay,
+                    WeatherContract.Maintenance.DEFAULT_RETENTION_DAYS);
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                            new String[]{Long.toString(cutoff)})
+                    .build());
+
+            long phaseStart = System.nanoTime();
+            try {
+                ContentProviderResult[] batchResults = context.getContentResolver().applyBatch(
+                        context.getString(R.string.content_authority), operations);
+                stats.rowsDeleted = batchResults[batchResults.length - 1].count;
+            } catch (RemoteException | OperationApplicationException | SQLException e) {
+                // Nothing of this sync was stored.  Leave the forecasts to the next one.
+                Log.e(LOG_TAG, "Error storing forecasts", e);
+                syncResult.databaseError = true;
+                for (FetchResult result : stored) {
+                    result.status = LOCATION_STATUS_UNKNOWN;
+                }
+                inserted = updated = unchanged = 0;
+                preferredChanged = false;
+                preferredObserved = false;
             }
+            stats.insertNanos = System.nanoTime() - phaseStart;
+            syncResult.stats.numDeletes += stats.rowsDeleted;
+        }
+        syncResult.stats.numInserts += inserted;
+        syncResult.stats.numUpdates += updated;
+        syncResult.stats.numSkippedEntries += unchanged;
+        stats.rowsInserted = inserted;
+        stats.rowsUpdated = updated;
+        stats.rowsUnchanged = unchanged;
+
+        // Everything we show outside the app is about the preferred location only, and there
+        // is no point in redrawing it if its forecast is exactly what we already had.
+        if (preferredChanged) {
+            mFanOutStats = stats;
+            fanOut();
+        }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+        boolean circuitOpen = false;
+        int retries = 0;
+        Map<String, Integer> statuses = new HashMap<>();
+        for (FetchResult result : results) {
+            circuitOpen |= result.circuitOpen;
+            retries += result.retries;
+            updateResponseCache(result);
+            statuses.put(result.locationQuery, result.status);
+            if (result.status == LOCATION_STATUS_SERVER_DOWN) {
+                syncResult.stats.numIoExceptions++;
+            } else if (result.parseError) {
+                syncResult.stats.numParseExceptions++;
+            }
+            if (result.status != LOCATION_STATUS_OK) {
+                stats.errors++;
+            }
+        }
+        setLocationStatuses(context, statuses, preferredLocation);
+        mResponseCache.logStats();
+        if (circuitOpen) {
+            // Ask the framework not to sync again before the breaker lets a request through.
+            // delayUntil is in seconds since the epoch.
+            syncResult.delayUntil = (System.currentTimeMillis()
+                    + mCircuitBreaker.getRemainingOpenMillis()) / 1000;
+        }
+        stats.store(context.getContentResolver());
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+        if (preferredObserved
+                && mScheduler.onForecastSynced(preferredDiff, hasForecastViewers())) {
+            configurePeriodicSync(context, mScheduler.getInterval(), mScheduler.getFlexTime());
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + results.size() + " locations, " + inserted
+                + " Inserted, " + updated + " Updated, " + unchanged + " Unchanged, "
+                + retries + " Retries");
+    }
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                sendDataToWearable();
+    private void updateResponseCache(FetchResult result) {
+        if (result.fresh) {
+            mResponseCache.recordFreshHit(result.cachedResponse);
+        } else if (result.notModified) {
+            mResponseCache.putNotModified(result.locationQuery, result.response);
+        } else if (result.forecast != null && result.status == LOCATION_STATUS_OK) {
+            mResponseCache.put(result.locationQuery, result.response, result.bodyBytes);
+        } else {
+            if (result.forecast != null || result.cachedResponse == null) {
+                // Either the server answered with something we could not store, or the entry
+                // outlived its forecast.  Neither is worth revalidating.
+                mResponseCache.remove(result.locationQuery);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            mResponseCache.recordMiss();
+        }
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * @return true if the database holds forecast rows for the location from today on
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
         }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
     }
 
     private void sendDataToWearable() {
@@ -392,35 +833,90 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 null,
                 WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
 
-        if (mGoogleApiClient.isConnected()) {
-            if (data != null) {
-                data.moveToFirst();
-
-                PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/weather").setUrgent();
-                putDataMapRequest.getDataMap().putInt("maxtemp", (int) Math.round(data.getDouble(0)));
-                putDataMapRequest.getDataMap().putInt("mintemp", (int) Math.round(data.getDouble(1)));
-                putDataMapRequest.getDataMap().putInt("weatherId", data.getInt(2));
-
-                PutDataRequest request = putDataMapRequest.asPutDataRequest();
-
-                Log.d(SunshineSyncAdapter.class.getSimpleName(), "Generating DataItem: " + request);
-                Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                        .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                            @Override
-                            public void onResult(DataApi.DataItemResult dataItemResult) {
-                                if (!dataItemResult.getStatus().isSuccess()) {
-                                    Log.e(SunshineSyncAdapter.class.getSimpleName(),
-                                            "ERROR: failed to putDataItem, status code: "
-                                                    + dataItemResult.getStatus().getStatusCode());
-                                } else {
-                                    Log.d(SunshineSyncAdapter.class.getSimpleName(),
-                                            "Success "
-                                                    + dataItemResult.getStatus().getStatusCode());
-                                }
-                            }
-                        });
+        if (data == null) {
+            return;
+        }
+        if (!mGoogleApiClient.isConnected() || !data.moveToFirst()) {
+            data.close();
+            return;
+        }
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/weather").setUrgent();
+        putDataMapRequest.getDataMap().putInt("maxtemp", (int) Math.round(data.getDouble(0)));
+        putDataMapRequest.getDataMap().putInt("mintemp", (int) Math.round(data.getDouble(1)));
+        putDataMapRequest.getDataMap().putInt("weatherId", data.getInt(2));
+        data.close();
+
+        PutDataRequest request = putDataMapRequest.asPutDataRequest();
+
+        Log.d(SunshineSyncAdapter.class.getSimpleName(), "Generating DataItem: " + request);
+        // This runs on a fan-out thread, so waiting for the put is fine and lets its latency
+        // show up with the other consumers
+        DataApi.DataItemResult dataItemResult = Wearable.DataApi
+                .putDataItem(mGoogleApiClient, request)
+                .await(WEARABLE_PUT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (!dataItemResult.getStatus().isSuccess()) {
+            Log.e(SunshineSyncAdapter.class.getSimpleName(),
+                    "ERROR: failed to putDataItem, status code: "
+                            + dataItemResult.getStatus().getStatusCode());
+        } else {
+            Log.d(SunshineSyncAdapter.class.getSimpleName(),
+                    "Success "
+                            + dataItemResult.getStatus().getStatusCode());
+        }
+    }
+
+    /**
+     * Lets everything outside the app that shows the weather know about the new forecast.  The
+     * consumers run next to each other on the fan-out's threads, each with its own timeout, so
+     * the sync thread is free as soon as they are started.
+     */
+    private void fanOut() {
+        mFanOut.submit(CONSUMER_WIDGETS, BROADCAST_TIMEOUT_MS, new Runnable() {
+            @Override
+            public void run() {
+                updateWidgets();
             }
+        });
+        mFanOut.submit(CONSUMER_MUZEI, BROADCAST_TIMEOUT_MS, new Runnable() {
+            @Override
+            public void run() {
+                updateMuzei();
+            }
+        });
+        mFanOut.submit(CONSUMER_NOTIFICATION, NOTIFICATION_TIMEOUT_MS, new Runnable() {
+            @Override
+            public void run() {
+                notifyWeather();
+            }
+        });
+        mFanOut.submit(CONSUMER_WEARABLE, WEARABLE_PUT_TIMEOUT_MS, new Runnable() {
+            @Override
+            public void run() {
+                sendDataToWearable();
+            }
+        });
+    }
+
+    /**
+     * @return true if a home screen widget or a connected watch shows the weather, even when
+     * nobody opens the app
+     */
+    private boolean hasForecastViewers() {
+        Context context = getContext();
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        if (appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0) {
+            return true;
+        }
+        if (!mGoogleApiClient.isConnected()) {
+            return false;
         }
+        NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi
+                .getConnectedNodes(mGoogleApiClient)
+                .await(WEARABLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        return nodes.getStatus().isSuccess() && !nodes.getNodes().isEmpty();
     }
 
     private void updateWidgets() {
@@ -462,6 +958,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
                 // we'll query our contentProvider, as always
                 Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                if (cursor == null) {
+                    return;
+                }
 
                 if (cursor.moveToFirst()) {
                     int weatherId = cursor.getInt(INDEX_WEATHER_ID);
@@ -493,8 +992,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                                 .asBitmap()
                                 .error(artResourceId)
                                 .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
+                                .into(largeIconWidth, largeIconHeight)
+                                .get(ART_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
@@ -549,15 +1049,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to handle insertion of a new location in the weather database.  Nothing is
+     * written here: the insert is added to the sync's batch.
      *
+     * @param operations      the batch of the sync
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName        A human-readable city name, e.g "Mountain View"
      * @param lat             the latitude of the city
      * @param lon             the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of the stored location, or -1 if the last operation of the batch
+     * inserts it
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
+    long addLocation(ArrayList<ContentProviderOperation> operations, String locationSetting,
+                     String cityName, double lat, double lon) {
         long locationId;
 
         // First, check if the location with this city name exists in the db
@@ -583,14 +1087,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+            // Finally, have the batch insert location data into the database.  Its weather rows
+            // pick the new ID up with a back reference to this operation.
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(locationValues)
+                    .build());
+            locationId = -1;
         }
 
         locationCursor.close();
@@ -630,6 +1133,23 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * Helper method to have the sync adapter sync the given locations immediately, whether or
+     * not they are the preferred one.
+     *
+     * @param context   The context used to access the account service
+     * @param locations The location settings to sync
+     */
+    public static void syncLocationsImmediately(Context context, String... locations) {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        // Sync extras can't hold arrays, so the locations travel as one String
+        bundle.putString(SYNC_EXTRAS_LOCATIONS, TextUtils.join("\n", locations));
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -673,7 +1193,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SyncScheduler scheduler = new SyncScheduler(context);
+        SunshineSyncAdapter.configurePeriodicSync(context,
+                scheduler.getInterval(), scheduler.getFlexTime());
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -691,17 +1213,45 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
+     * Sets the status of every synced location into shared preference, in a single commit.  The
+     * status of the preferred location also goes to the global location status key, which the
+     * settings and the forecast list watch.  This function should not be called from the UI
+     * thread because it uses commit to write to the shared preferences.
      *
-     * @param c              Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
+     * @param c                 Context to get the PreferenceManager from.
+     * @param locationStatuses  The IntDef value to set, for each location setting
+     * @param preferredLocation The preferred location setting
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus) {
+    static private void setLocationStatuses(Context c, Map<String, Integer> locationStatuses,
+                                            String preferredLocation) {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        for (Map.Entry<String, Integer> status : locationStatuses.entrySet()) {
+            spe.putInt(Utility.getLocationStatusKey(c, status.getKey()), status.getValue());
+        }
+        Integer preferredStatus = locationStatuses.get(preferredLocation);
+        if (preferredStatus != null) {
+            spe.putInt(c.getString(R.string.pref_location_status_key), preferredStatus);
+        }
+        spe.commit();
+        // Not on the main thread, so the listener would only see this later
+        SunshineSettings.refresh(c);
+    }
+
+    /**
+     * Forgets the statuses of locations that are no longer stored.  Like
+     * {@link #setLocationStatuses}, not to be called from the UI thread.
+     */
+    static private void removeLocationStatuses(Context c, String[] locationSettings) {
+        if (locationSettings == null || locationSettings.length == 0) {
+            return;
+        }
+        SharedPreferences.Editor spe = PreferenceManager.getDefaultSharedPreferences(c).edit();
+        for (String locationSetting : locationSettings) {
+            spe.remove(Utility.getLocationStatusKey(c, locationSetting));
+        }
         spe.commit();
+        SunshineSettings.refresh(c);
     }
 
     @Override
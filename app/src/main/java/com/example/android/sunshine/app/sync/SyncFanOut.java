@@ -0,0 +1,118 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the consumers that hear about a finished sync (widgets, Muzei, the notification, the
+ * wearable) next to each other, off the sync thread.  Each consumer gets its own timeout after
+ * which it is interrupted, so a slow art download or a stuck wearable put costs nothing but
+ * its own result.  How long every consumer took is reported to the {@link Listener}.
+ */
+class SyncFanOut {
+    private static final String LOG_TAG = SyncFanOut.class.getSimpleName();
+
+    /**
+     * Hears how every consumer did.  Called on the consumer's thread.
+     */
+    interface Listener {
+        /**
+         * @param name          the consumer's name
+         * @param latencyMillis from being submitted to finishing, failing or timing out
+         * @param timedOut      true if the consumer was interrupted for taking too long
+         * @param error         what the consumer threw, or null
+         */
+        void onConsumerFinished(String name, long latencyMillis, boolean timedOut,
+                                Throwable error);
+    }
+
+    private final ExecutorService mExecutor;
+    private final ScheduledExecutorService mWatchdog;
+    private final Map<String, Long> mLastLatencies = new ConcurrentHashMap<>();
+    private volatile Listener mListener;
+
+    SyncFanOut() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SyncFanOut-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        };
+        mExecutor = Executors.newCachedThreadPool(threadFactory);
+        mWatchdog = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return how long the consumer took the last time it ran, in milliseconds, or -1
+     */
+    long getLastLatencyMillis(String name) {
+        Long latency = mLastLatencies.get(name);
+        return latency == null ? -1 : latency;
+    }
+
+    /**
+     * Starts a consumer and returns right away.
+     *
+     * @param name          used in logs and reported to the listener
+     * @param timeoutMillis how long the consumer may run before it is interrupted
+     */
+    void submit(final String name, long timeoutMillis, final Runnable consumer) {
+        final long submittedAt = SystemClock.elapsedRealtime();
+        // Set by the watchdog, since the consumer may well swallow the interrupt
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final Future<?> future = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Throwable error = null;
+                try {
+                    consumer.run();
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                report(name, SystemClock.elapsedRealtime() - submittedAt, timedOut.get(), error);
+            }
+        });
+        mWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!future.isDone()) {
+                    timedOut.set(true);
+                    future.cancel(true);
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void report(String name, long latencyMillis, boolean timedOut, Throwable error) {
+        mLastLatencies.put(name, latencyMillis);
+        if (error != null) {
+            Log.e(LOG_TAG, name + " failed after " + latencyMillis + " ms", error);
+        } else {
+            Log.d(LOG_TAG, name + (timedOut ? " timed out after " : " took ")
+                    + latencyMillis + " ms");
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onConsumerFinished(name, latencyMillis, timedOut, error);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Locale;
+
+/**
+ * Picks the periodic sync interval from how much the preferred location's forecast has been
+ * moving between syncs and from whether anyone is looking at it.
+ * <p>
+ * Each sync that reached the server adds one observation: the largest change of a high or low
+ * plus a penalty for every day whose weather condition changed.  The observations are smoothed
+ * into a volatility score.  A volatile forecast is synced every {@link #MIN_INTERVAL}, a stable
+ * one every {@link #STABLE_INTERVAL}, and anything in between keeps
+ * {@link SunshineSyncAdapter#SYNC_INTERVAL}.  The interval is doubled when the app has not been
+ * opened for {@link #IDLE_AFTER_MILLIS} and there is no widget or watch showing the weather.
+ * It never goes past {@link #MAX_STALENESS}, the oldest a forecast is allowed to get.
+ * <p>
+ * The state lives in its own SharedPreferences file so the interval and the reason for it can be
+ * read back for tuning.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String KEY_VOLATILITY = "volatility";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_REASON = "reason";
+    private static final String KEY_LAST_ACTIVE = "last_active";
+
+    // Intervals, in seconds like SyncRequest and addPeriodicSync expect them
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int STABLE_INTERVAL = SunshineSyncAdapter.SYNC_INTERVAL * 2;
+    static final int MAX_STALENESS = 60 * 60 * 12;
+
+    static final long IDLE_AFTER_MILLIS = 1000L * 60 * 60 * 24;
+
+    // A condition change ("sunny" to "rain") weighs as much as this many degrees Celsius
+    static final double CONDITION_CHANGE_WEIGHT = 2.0;
+    // Weight of the newest observation in the smoothed volatility
+    static final double SMOOTHING = 0.5;
+    static final double VOLATILE_THRESHOLD = 4.0;
+    static final double STABLE_THRESHOLD = 1.0;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({REASON_DEFAULT, REASON_VOLATILE, REASON_STABLE, REASON_IDLE, REASON_STABLE_AND_IDLE})
+    public @interface Reason {
+    }
+
+    public static final int REASON_DEFAULT = 0;
+    public static final int REASON_VOLATILE = 1;
+    public static final int REASON_STABLE = 2;
+    public static final int REASON_IDLE = 3;
+    public static final int REASON_STABLE_AND_IDLE = 4;
+
+    private final SharedPreferences mPrefs;
+
+    public SyncScheduler(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Notes that the user just looked at the forecast in the app.  Cheap enough for onResume.
+     */
+    public static void recordUserActivity(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putLong(KEY_LAST_ACTIVE, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * @return the periodic sync interval in use, in seconds
+     */
+    public int getInterval() {
+        return mPrefs.getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * @return the flex time that goes with {@link #getInterval()}, in seconds
+     */
+    public int getFlexTime() {
+        return getInterval() / 3;
+    }
+
+    @SuppressWarnings("ResourceType")
+    public @Reason int getReason() {
+        return mPrefs.getInt(KEY_REASON, REASON_DEFAULT);
+    }
+
+    public double getVolatility() {
+        return mPrefs.getFloat(KEY_VOLATILITY, 0f);
+    }
+
+    /**
+     * Adds the outcome of a sync of the preferred location and works out the next interval.
+     *
+     * @param diff          how the forecast compared with the stored one; null if the server
+     *                      answered that nothing changed
+     * @param hasViewers    true if a widget or a watch face shows the weather
+     * @return true if the interval changed and the periodic sync has to be rescheduled
+     */
+    boolean onForecastSynced(ForecastDiff diff, boolean hasViewers) {
+        double observation = diff == null ? 0
+                : diff.maxTemperatureChange + CONDITION_CHANGE_WEIGHT * diff.conditionChanges;
+        double volatility = SMOOTHING * observation + (1 - SMOOTHING) * getVolatility();
+
+        long lastActive = mPrefs.getLong(KEY_LAST_ACTIVE, 0);
+        boolean idle = !hasViewers
+                && System.currentTimeMillis() - lastActive >= IDLE_AFTER_MILLIS;
+
+        int interval;
+        int reason;
+        if (volatility >= VOLATILE_THRESHOLD) {
+            // Someone may still want to know the weather is turning, so idleness doesn't count
+            interval = MIN_INTERVAL;
+            reason = REASON_VOLATILE;
+        } else if (volatility < STABLE_THRESHOLD) {
+            interval = STABLE_INTERVAL;
+            reason = idle ? REASON_STABLE_AND_IDLE : REASON_STABLE;
+        } else {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+            reason = idle ? REASON_IDLE : REASON_DEFAULT;
+        }
+        if (idle && reason != REASON_VOLATILE) {
+            interval *= 2;
+        }
+        interval = Math.min(interval, MAX_STALENESS);
+
+        boolean changed = interval != getInterval();
+        mPrefs.edit()
+                .putFloat(KEY_VOLATILITY, (float) volatility)
+                .putInt(KEY_INTERVAL, interval)
+                .putInt(KEY_REASON, reason)
+                .apply();
+        Log.d(LOG_TAG, String.format(Locale.US, "Volatility %.2f, next sync in %d min (%s)",
+                volatility, interval / 60, describeReason(reason)));
+        return changed;
+    }
+
+    static String describeReason(int reason) {
+        switch (reason) {
+            case REASON_VOLATILE:
+                return "forecast is changing";
+            case REASON_STABLE:
+                return "forecast is stable";
+            case REASON_IDLE:
+                return "nobody is looking";
+            case REASON_STABLE_AND_IDLE:
+                return "forecast is stable and nobody is looking";
+            default:
+                return "default";
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time and the bytes of one sync went, phase by phase.  The sync adapter fills it in
+ * as it goes and stores it as one row of {@link SyncStatsEntry}, which keeps the last
+ * {@link SyncStatsEntry#HISTORY_SIZE} syncs.
+ * <p>
+ * The fan-out consumers run on after the row is written, so the slowest of them is added to the
+ * row when it reports back.
+ */
+class SyncStats {
+    private static final String LOG_TAG = SyncStats.class.getSimpleName();
+
+    private final long mStartedAt = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+
+    int locations;
+    // Wall clock time of the download phase
+    long fetchNanos;
+    // Per-location download phases, summed over the locations
+    long connectNanos;
+    long firstByteNanos;
+    long downloadNanos;
+    long parseNanos;
+    // Storing the forecasts.  The inserts, the location updates and the purge of the days gone
+    // by are applied as one batch, so the insert phase covers all of them.
+    long locationLookupNanos;
+    long diffNanos;
+    long insertNanos;
+
+    long bytesReceived;
+    int rowsInserted;
+    int rowsUpdated;
+    int rowsUnchanged;
+    int rowsDeleted;
+    int errors;
+
+    private long mTotalNanos;
+    private long mFanOutMillis;
+    private Uri mUri;
+
+    /**
+     * Adds the download phases of one location.
+     */
+    void addFetch(SunshineSyncAdapter.FetchResult result) {
+        connectNanos += result.connectNanos;
+        firstByteNanos += result.firstByteNanos;
+        downloadNanos += result.downloadNanos;
+        parseNanos += result.parseNanos;
+        bytesReceived += result.bytesReceived;
+    }
+
+    /**
+     * Stops the clock and writes the sync to the history.
+     */
+    synchronized void store(ContentResolver resolver) {
+        mTotalNanos = System.nanoTime() - mStartNanos;
+        Log.d(LOG_TAG, toString());
+        try {
+            mUri = resolver.insert(SyncStatsEntry.CONTENT_URI, toContentValues());
+        } catch (SQLException e) {
+            // Losing the stats of one sync is no reason to fail it
+            Log.e(LOG_TAG, "Error storing sync stats", e);
+        }
+    }
+
+    /**
+     * Notes that a fan-out consumer finished, and updates the stored row if it was the slowest
+     * so far.  Called on the consumer's thread.
+     */
+    synchronized void onConsumerFinished(ContentResolver resolver, long latencyMillis) {
+        if (latencyMillis <= mFanOutMillis) {
+            return;
+        }
+        mFanOutMillis = latencyMillis;
+        if (mUri != null) {
+            ContentValues values = new ContentValues();
+            values.put(SyncStatsEntry.COLUMN_FAN_OUT, TimeUnit.MILLISECONDS.toMicros(latencyMillis));
+            resolver.update(SyncStatsEntry.CONTENT_URI, values, SyncStatsEntry._ID + " = ?",
+                    new String[]{Long.toString(ContentUris.parseId(mUri))});
+        }
+    }
+
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(SyncStatsEntry.COLUMN_STARTED, mStartedAt);
+        values.put(SyncStatsEntry.COLUMN_TOTAL, toMicros(mTotalNanos));
+        values.put(SyncStatsEntry.COLUMN_LOCATIONS, locations);
+        values.put(SyncStatsEntry.COLUMN_FETCH, toMicros(fetchNanos));
+        values.put(SyncStatsEntry.COLUMN_CONNECT, toMicros(connectNanos));
+        values.put(SyncStatsEntry.COLUMN_FIRST_BYTE, toMicros(firstByteNanos));
+        values.put(SyncStatsEntry.COLUMN_DOWNLOAD, toMicros(downloadNanos));
+        values.put(SyncStatsEntry.COLUMN_PARSE, toMicros(parseNanos));
+        values.put(SyncStatsEntry.COLUMN_LOCATION_LOOKUP, toMicros(locationLookupNanos));
+        values.put(SyncStatsEntry.COLUMN_DIFF, toMicros(diffNanos));
+        values.put(SyncStatsEntry.COLUMN_INSERT, toMicros(insertNanos));
+        values.put(SyncStatsEntry.COLUMN_FAN_OUT, TimeUnit.MILLISECONDS.toMicros(mFanOutMillis));
+        values.put(SyncStatsEntry.COLUMN_BYTES_RECEIVED, bytesReceived);
+        values.put(SyncStatsEntry.COLUMN_ROWS_INSERTED, rowsInserted);
+        values.put(SyncStatsEntry.COLUMN_ROWS_UPDATED, rowsUpdated);
+        values.put(SyncStatsEntry.COLUMN_ROWS_UNCHANGED, rowsUnchanged);
+        values.put(SyncStatsEntry.COLUMN_ROWS_DELETED, rowsDeleted);
+        values.put(SyncStatsEntry.COLUMN_ERRORS, errors);
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d locations in %d ms: fetch %d ms (connect %d, "
+                        + "first byte %d, download %d, parse %d), location lookup %d ms, "
+                        + "diff %d ms, insert %d ms; %d rows deleted, %d bytes, %d errors",
+                locations, toMillis(mTotalNanos), toMillis(fetchNanos), toMillis(connectNanos),
+                toMillis(firstByteNanos), toMillis(downloadNanos), toMillis(parseNanos),
+                toMillis(locationLookupNanos), toMillis(diffNanos), toMillis(insertNanos),
+                rowsDeleted, bytesReceived, errors);
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
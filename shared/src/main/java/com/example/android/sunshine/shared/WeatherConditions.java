@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.util.Arrays;
+
+/**
+ * Sorts the OpenWeatherMap weather condition ids into the kinds of weather Sunshine has artwork
+ * for.  The table has a slot for every id from {@link #FIRST_ID} to {@link #LAST_ID} and is built
+ * once, so a lookup is an array read instead of a chain of range checks.
+ * <p>
+ * The drawables and strings belong to the app and the watch face, so each of them maps the kinds
+ * to its own resources with an array indexed by kind.  Tables of their own indexed by id, such
+ * as the app's condition names, use {@link #indexOf}.
+ */
+public final class WeatherConditions {
+    public static final int FIRST_ID = 200;
+    public static final int LAST_ID = 962;
+    public static final int ID_COUNT = LAST_ID - FIRST_ID + 1;
+
+    public static final int UNKNOWN = -1;
+    public static final int STORM = 0;
+    public static final int LIGHT_RAIN = 1;
+    public static final int RAIN = 2;
+    public static final int SNOW = 3;
+    public static final int FOG = 4;
+    // Drawn as a storm, with its own photo
+    public static final int TORNADO = 5;
+    public static final int CLEAR = 6;
+    public static final int LIGHT_CLOUDS = 7;
+    public static final int CLOUDS = 8;
+    public static final int KIND_COUNT = 9;
+
+    // The names of the artwork in the art packs, indexed by kind
+    private static final String[] ART_NAMES = {
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    // Indexed by kind
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    private static final byte[] KINDS = buildKinds();
+
+    private WeatherConditions() {
+    }
+
+    private static byte[] buildKinds() {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        byte[] kinds = new byte[ID_COUNT];
+        Arrays.fill(kinds, (byte) UNKNOWN);
+        fill(kinds, 200, 232, STORM);
+        fill(kinds, 300, 321, LIGHT_RAIN);
+        fill(kinds, 500, 504, RAIN);
+        fill(kinds, 511, 511, SNOW);
+        fill(kinds, 520, 531, RAIN);
+        fill(kinds, 600, 622, SNOW);
+        fill(kinds, 701, 761, FOG);
+        fill(kinds, 781, 781, TORNADO);
+        fill(kinds, 800, 800, CLEAR);
+        fill(kinds, 801, 801, LIGHT_CLOUDS);
+        fill(kinds, 802, 804, CLOUDS);
+        return kinds;
+    }
+
+    private static void fill(byte[] kinds, int firstId, int lastId, int kind) {
+        Arrays.fill(kinds, firstId - FIRST_ID, lastId - FIRST_ID + 1, (byte) kind);
+    }
+
+    /**
+     * @return the slot of the id in a table indexed by id, or -1 if it is outside the table
+     */
+    public static int indexOf(int weatherId) {
+        int index = weatherId - FIRST_ID;
+        return index >= 0 && index < ID_COUNT ? index : -1;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the kind of weather, or {@link #UNKNOWN} if Sunshine has no artwork for it
+     */
+    public static int getKind(int weatherId) {
+        int index = indexOf(weatherId);
+        return index < 0 ? UNKNOWN : KINDS[index];
+    }
+
+    /**
+     * @return the name of the kind's artwork in an art pack, or null for {@link #UNKNOWN}
+     */
+    public static String getArtName(int kind) {
+        return kind == UNKNOWN ? null : ART_NAMES[kind];
+    }
+
+    /**
+     * @return a photo of the kind of weather, or null for {@link #UNKNOWN}
+     */
+    public static String getImageUrl(int kind) {
+        return kind == UNKNOWN ? null : IMAGE_URLS[kind];
+    }
+}
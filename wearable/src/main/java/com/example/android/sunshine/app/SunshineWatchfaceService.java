@@ -39,6 +39,7 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.shared.WeatherConditions;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.DataApi;
@@ -77,6 +78,21 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * The icon of each kind of weather, indexed by {@link WeatherConditions} kind.
+     */
+    private static final int[] CONDITION_ICONS = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -420,32 +436,8 @@ public class SunshineWatchfaceService extends CanvasWatchFaceService {
         }
 
         private int getIconResourceForWeatherCondition(int weatherId) {
-            // Based on weather code data found at:
-            // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-            if (weatherId >= 200 && weatherId <= 232) {
-                return R.drawable.ic_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return R.drawable.ic_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return R.drawable.ic_rain;
-            } else if (weatherId == 511) {
-                return R.drawable.ic_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return R.drawable.ic_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return R.drawable.ic_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return R.drawable.ic_fog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                return R.drawable.ic_storm;
-            } else if (weatherId == 800) {
-                return R.drawable.ic_clear;
-            } else if (weatherId == 801) {
-                return R.drawable.ic_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return R.drawable.ic_cloudy;
-            }
-            return -1;
+            int kind = WeatherConditions.getKind(weatherId);
+            return kind == WeatherConditions.UNKNOWN ? -1 : CONDITION_ICONS[kind];
         }
     }
 }